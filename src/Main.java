@@ -1,7 +1,21 @@
 import java.io.File;
 import java.io.FilenameFilter;
 
+import retiming.CoolingSchedule;
+import retiming.CostCache;
+import retiming.LAHCretimer;
+import retiming.LSretimer;
+import retiming.LamDelosmeCooling;
+import retiming.LocalSearchRetimer;
+import retiming.MLretimer;
+import retiming.PartitionRetimer;
+import retiming.PTretimer;
+import retiming.RatioCooling;
+import retiming.RegisterRetimer;
+import retiming.Retimer;
 import retiming.SAretimer;
+import retiming.SCCretimer;
+import retiming.TSretimer;
 import scheduler.Dot_reader;
 import scheduler.Graph;
 import scheduler.ListScheduler;
@@ -9,6 +23,29 @@ import scheduler.RC;
 import scheduler.Schedule;
 
 public class Main {
+  // options, which may follow the output directory
+  private static String method = "sa"; // "retimer=<sa|ls|ls+sa|reg|tabu|lahc|pt|ml|part|scc>": simulated annealing, exact minimum period of
+                                       // Leiserson/Saxe, both in sequence, minimum registers, tabu search, late acceptance hill climbing,
+                                       // parallel tempering, multilevel annealing, partitioned annealing or annealing of the strongly
+                                       // connected components
+  private static int replicas = 8; // "replicas=<number of replicas>" for retimer=pt
+  private static int parts = 4; // "parts=<number of parts>" for retimer=part
+  private static int speculation = 0; // "speculation=<moves evaluated in parallel>" for retimer=sa
+  private static int threads = Runtime.getRuntime().availableProcessors(); // "threads=<worker threads>" for retimer=pt, retimer=part, retimer=scc and speculation
+  private static int period = 0; // "period=<period>" for retimer=reg, 0 for the minimum period
+  private static boolean scheduleAsCost = false; // "scheduleAsCost"
+  private static double criticalShare = 0; // "critical=<share of moves near the critical path>"
+  private static boolean adaptive = false; // "adaptive"
+  private static int clusterSize = 1; // "cluster=<maximum number of nodes rotated in one move>"
+  private static int cacheSize = 0; // "cache=<number of cached schedule costs>", only used with scheduleAsCost
+  private static String cooling = "ratio"; // "cooling=<ratio|lam>"
+  private static double calibration = 1; // "calibration=<sample moves per node>", 0 uses fixed start and final temperatures
+  private static long timeLimit = 0; // "time=<milliseconds per graph>"
+  private static int targetCost = 0; // "target=<cost>"
+  private static long stagnationMoves = 0; // "stagnation=<moves without improvement>"
+  private static int stagnationSteps = 0; // "stagnationsteps=<temperature steps without improvement>"
+  private static double equilibrium = 0.1; // "equilibrium=<tolerance>", 0 runs each temperature step for quality moves per node
+  
   public static void main(String[] args) {
     // prepare input file list
     File[] inFiles = null;
@@ -41,18 +78,43 @@ public class Main {
       if (!outputDir.isDirectory()) throw new IllegalArgumentException("Output path is not a directory!");
     } else throw new IllegalArgumentException("No output path given!");
     
-    // read scheduleAsCost
-    boolean scheduleAsCost = false;
-    if (args.length > 4 && args[4].equalsIgnoreCase("scheduleascost")) scheduleAsCost = true;
+    // read options
+    for (int i = 4; i < args.length; i++) {
+      String opt = args[i].toLowerCase();
+      if (opt.equals("scheduleascost")) scheduleAsCost = true;
+      else if (opt.matches("retimer=(sa|ls|ls\\+sa|reg|tabu|lahc|pt|ml|part|scc)")) method = opt.substring(8);
+      else if (opt.startsWith("replicas=")) replicas = Integer.parseInt(opt.substring(9));
+      else if (opt.startsWith("parts=")) parts = Integer.parseInt(opt.substring(6));
+      else if (opt.startsWith("speculation=")) speculation = Integer.parseInt(opt.substring(12));
+      else if (opt.startsWith("threads=")) threads = Integer.parseInt(opt.substring(8));
+      else if (opt.startsWith("period=")) period = Integer.parseInt(opt.substring(7));
+      else if (opt.startsWith("critical=")) criticalShare = Double.parseDouble(opt.substring(9));
+      else if (opt.equals("adaptive")) adaptive = true;
+      else if (opt.startsWith("cluster=")) clusterSize = Integer.parseInt(opt.substring(8));
+      else if (opt.startsWith("cache=")) cacheSize = Integer.parseInt(opt.substring(6));
+      else if (opt.equals("cooling=ratio") || opt.equals("cooling=lam")) cooling = opt.substring(8);
+      else if (opt.startsWith("calibration=")) calibration = Double.parseDouble(opt.substring(12));
+      else if (opt.startsWith("time=")) timeLimit = Long.parseLong(opt.substring(5));
+      else if (opt.startsWith("target=")) targetCost = Integer.parseInt(opt.substring(7));
+      else if (opt.startsWith("stagnation=")) stagnationMoves = Long.parseLong(opt.substring(11));
+      else if (opt.startsWith("stagnationsteps=")) stagnationSteps = Integer.parseInt(opt.substring(16));
+      else if (opt.startsWith("equilibrium=")) equilibrium = Double.parseDouble(opt.substring(12));
+      else throw new IllegalArgumentException("Unknown option " + args[i] + "!");
+    }
     
     // process files
-    System.out.println("nodes\tbefore\tafter\tsched\tcycles\tfile name");
-    System.out.println("-------------------------------------------");
-    for (int i = 0; i < inFiles.length; i++) processFile(inFiles[i], outputDir, constraints, quality, scheduleAsCost);
+    if (scheduleAsCost && cacheSize > 0) {
+      System.out.println("nodes\tbefore\tafter\tfinal\tsched\tbound\tgap\tregs\tcycles\tstop\t\thits\tfile name");
+      System.out.println("---------------------------------------------------------------------------------------------------");
+    } else {
+      System.out.println("nodes\tbefore\tafter\tfinal\tsched\tbound\tgap\tregs\tcycles\tstop\t\tfile name");
+      System.out.println("-------------------------------------------------------------------------------------------");
+    }
+    for (int i = 0; i < inFiles.length; i++) processFile(inFiles[i], outputDir, constraints, quality);
   }
 
 
-  private static void processFile (File inFile, File outDir, RC constraints, int quality, boolean scheduleAsCost) {
+  private static void processFile (File inFile, File outDir, RC constraints, int quality) {
     // read dot file
     Dot_reader dr = new Dot_reader(true);
     Graph g = dr.parse(inFile.getAbsolutePath());
@@ -62,16 +124,88 @@ public class Main {
     scheduler.constraints = constraints;
 
     // do retiming
-    SAretimer retimer = new SAretimer(g);
-    if (scheduleAsCost) retimer.scheduler = scheduler;
-    int[] cost = retimer.retime(quality);
-        
+    int[] cost = null;
+    if (method.equals("reg")) {
+      RegisterRetimer reg = new RegisterRetimer(g);
+      reg.period = period;
+      try {
+        cost = reg.retime(quality);
+      } catch (IllegalArgumentException e) {
+        System.out.println("Cannot retime " + inFile.getName() + ": " + e.getMessage());
+        return;
+      }
+      finish(g, inFile, outDir, scheduler, reg, cost);
+      return;
+    }
+    if (method.startsWith("ls")) {
+      Retimer ls = new LSretimer(g);
+      cost = ls.retime(quality);
+      if (method.equals("ls")) {
+        finish(g, inFile, outDir, scheduler, ls, cost);
+        return;
+      }
+    }
+    LocalSearchRetimer search; // starts from the result of the exact retiming, if there is one
+    if (method.equals("tabu")) search = new TSretimer(g);
+    else if (method.equals("lahc")) search = new LAHCretimer(g);
+    else if (method.equals("pt")) {
+      PTretimer pt = new PTretimer(g);
+      pt.replicas = replicas;
+      pt.threads = threads;
+      pt.calibration = calibration;
+      search = pt;
+    }
+    else {
+      SAretimer sa;
+      if (method.equals("ml")) sa = new MLretimer(g);
+      else if (method.equals("part")) {
+        PartitionRetimer part = new PartitionRetimer(g);
+        part.parts = parts;
+        sa = part;
+      } else if (method.equals("scc")) sa = new SCCretimer(g);
+      else sa = new SAretimer(g);
+      CoolingSchedule cs = cooling.equals("lam") ? new LamDelosmeCooling() : new RatioCooling();
+      cs.equilibrium = equilibrium;
+      sa.cooling = cs;
+      sa.calibration = calibration;
+      sa.speculation = speculation;
+      sa.threads = threads;
+      search = sa;
+    }
+    configure(search);
+    if (scheduleAsCost) search.scheduler = scheduler;
+    int[] searchCost = search.retime(quality);
+    if (cost != null) searchCost[0] = cost[0]; // report the cost before all retimings
+    finish(g, inFile, outDir, scheduler, search, searchCost);
+  }
+  
+  private static void configure (LocalSearchRetimer retimer) {
+    retimer.criticalShare = criticalShare;
+    retimer.adaptive = adaptive;
+    retimer.clusterSize = clusterSize;
+    retimer.cacheSize = cacheSize;
+    retimer.timeLimit = timeLimit;
+    retimer.targetCost = targetCost;
+    retimer.stagnationMoves = stagnationMoves;
+    retimer.stagnationSteps = stagnationSteps;
+  }
+  
+  private static void finish (Graph g, File inFile, File outDir, ListScheduler scheduler, Retimer retimer, int[] cost) {
     // schedule
     Schedule sched = scheduler.schedule(g);
     if (sched == null) System.out.println("Cannot schedule "+inFile.getName()+"!");
     else sched.draw(outDir.getAbsolutePath() + "/" + inFile.getName());
     
     // print information
-    if (sched != null) System.out.println(g.size() + "\t" + cost[0] + "\t" + cost[1] + "\t" + sched.max() + "\t" + cost[2] + "\t" + inFile.getName());
+    if (sched == null) return;
+    int bound = retimer.lowerBound();
+    String gap = String.format("%.1f%%", 100.0 * (cost[1] - bound) / bound); // distance of the result to the lower bound
+    String hits = "";
+    if (scheduleAsCost && cacheSize > 0) {
+      CostCache cache = retimer instanceof LocalSearchRetimer ? ((LocalSearchRetimer)retimer).cache : null;
+      if (cache != null) hits = String.format("%.1f%%\t", cache.hitRate() * 100);
+      else hits = "-\t"; // no cache, or the retimer stopped before its search started
+    }
+    System.out.println(g.size() + "\t" + cost[0] + "\t" + cost[1] + "\t" + cost[3] + "\t" + sched.max() + "\t" + bound + "\t" + gap + "\t" + retimer.registers() + "\t" + cost[2] + "\t" + String.format("%-15s", retimer.stopReason) + "\t" + hits + inFile.getName());
   }
 }
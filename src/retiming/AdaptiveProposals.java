@@ -0,0 +1,127 @@
+package retiming;
+
+import scheduler.CompactGraph;
+
+/**
+ * Chooses nodes for rotations according to their past success.
+ * For each node and direction a score is kept, which sums up the rewards of all accepted moves. A share of each reward is also
+ * given to the neighbours, which received the moved registers, because the same rotation of them pushes the registers on. Older rewards decay:
+ * instead of multiplying all scores with decay after each move, the increment for new rewards is divided by decay.
+ * The rotatable nodes are drawn proportional to their score with a Fenwick tree, a share of explore moves is drawn uniformly,
+ * so that every rotatable node can still be chosen.
+ */
+public class AdaptiveProposals {
+  private final CompactGraph cg;
+  private final RotatableNodes rotatable;
+  public double decay = 0.99; // factor, by which old rewards lose weight with each move
+  public double explore = 0.8; // share of uniformly drawn nodes
+  public double spread = 0.5; // share of a reward, which is also given to the neighbours, that received the moved registers
+  private final double[][] score = new double[2][]; // score of each node for rotations into past (index 0) and future (index 1)
+  private final double[][] tree = new double[2][]; // Fenwick trees over the scores of the rotatable nodes
+  private final double[][] value = new double[2][]; // value of each node in the tree: its score, if it is rotatable, 0 otherwise
+  private double inc = 1; // current weight of a reward
+
+  public AdaptiveProposals (CompactGraph cg, RotatableNodes rotatable) {
+    this.cg = cg;
+    this.rotatable = rotatable;
+    for (int s = 0; s < 2; s++) {
+      score[s] = new double[cg.size()];
+      tree[s] = new double[cg.size() + 1];
+      value[s] = new double[cg.size()];
+    }
+  }
+
+  /**
+   * Forgets all scores. The rotatable nodes must have been initialized before.
+   */
+  public void init () {
+    inc = 1;
+    for (int s = 0; s < 2; s++) for (int v = 0; v < cg.size(); v++) score[s][v] = 0;
+    rebuild();
+  }
+
+  private void rebuild () {
+    for (int s = 0; s < 2; s++) {
+      for (int i = 0; i < tree[s].length; i++) tree[s][i] = 0;
+      for (int v = 0; v < cg.size(); v++) {
+        value[s][v] = rotatable.contains(s == 1, v) ? score[s][v] : 0;
+        // add value to the tree in linear time: each node passes its sum to its parent
+        tree[s][v+1] += value[s][v];
+        int p = (v+1) + ((v+1) & -(v+1));
+        if (p < tree[s].length) tree[s][p] += tree[s][v+1];
+      }
+    }
+  }
+
+  private void set (int s, int v, double x) {
+    double d = x - value[s][v];
+    if (d == 0) return;
+    value[s][v] = x;
+    for (int i = v+1; i < tree[s].length; i += i & -i) tree[s][i] += d;
+  }
+
+  private void add (int s, int v, double reward) {
+    score[s][v] += reward;
+    if (rotatable.contains(s == 1, v)) set(s, v, score[s][v]);
+  }
+
+  private void refresh (int v) {
+    set(0, v, rotatable.contains(false, v) ? score[0][v] : 0);
+    set(1, v, rotatable.contains(true, v) ? score[1][v] : 0);
+  }
+
+  /**
+   * Updates the tree after node n was rotated. The rotatable nodes must have been updated before.
+   */
+  public void moved (int n) {
+    refresh(n);
+    for (int e = cg.succOff[n]; e < cg.succOff[n+1]; e++) refresh(cg.dst[e]);
+    for (int i = cg.predOff[n]; i < cg.predOff[n+1]; i++) refresh(cg.src[cg.predEdge[i]]);
+  }
+
+  /**
+   * Records the outcome of a move and lets all older rewards decay.
+   * @param reward
+   * 0 for a rejected move, a positive value for an accepted one
+   * @return
+   * true, if all scores were rescaled. Rewards of rejected moves don't change the drawing of nodes otherwise
+   */
+  public boolean reward (int n, boolean rotDir, double reward) {
+    inc /= decay;
+    if (reward > 0) {
+      int s = rotDir ? 1 : 0;
+      add(s, n, reward * inc);
+      // the moved registers can be pushed on by the same rotation of the neighbours, which they were moved to
+      if (rotDir) for (int i = cg.predOff[n]; i < cg.predOff[n+1]; i++) add(s, cg.src[cg.predEdge[i]], reward * inc * spread);
+      else for (int e = cg.succOff[n]; e < cg.succOff[n+1]; e++) add(s, cg.dst[e], reward * inc * spread);
+    }
+    if (inc > 1e100) { // rescale all scores, before they overflow
+      for (int s = 0; s < 2; s++) for (int v = 0; v < cg.size(); v++) score[s][v] /= inc;
+      inc = 1;
+      rebuild();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns a node, which can be rotated in the given direction. Nodes with a high score are preferred.
+   * @return the index of the node, -1 if no node can be rotated in the given direction
+   */
+  public int sample (boolean rotDir, double random) {
+    int s = rotDir ? 1 : 0;
+    double total = 0;
+    for (int i = tree[s].length - 1; i > 0; i -= i & -i) total += tree[s][i];
+    if (random < explore || total <= 0) return rotatable.sample(rotDir, random < explore ? random / explore : (random - explore) / (1 - explore));
+    // search the node, where the prefix sum of the values exceeds the target
+    double target = (random - explore) / (1 - explore) * total;
+    int i = 0;
+    for (int step = Integer.highestOneBit(tree[s].length - 1); step > 0; step >>= 1) {
+      if (i + step >= tree[s].length || tree[s][i + step] > target) continue;
+      i += step;
+      target -= tree[s][i];
+    }
+    if (i >= cg.size() || value[s][i] <= 0) return rotatable.sample(rotDir, random); // only rounding errors lead here
+    return i;
+  }
+}
@@ -0,0 +1,119 @@
+package retiming;
+
+/**
+ * Decides, how long the annealing stays at one temperature and how the temperature is reduced afterwards.
+ * The annealer calls startStep() at the begin of each temperature step, record() after each move and next(), when stepDone() returns true.
+ * The statistics of the current step (acceptance ratio, mean and deviation of the cost) are collected here. Moves, which don't change
+ * the cost, are not regarded for the acceptance ratio: they are always accepted and would hide the effect of the temperature on plateaus.
+ * A step ends after quality moves per node or earlier, if the cost has reached an equilibrium: the mean cost of the last window of moves
+ * differs from the one of the window before by less than equilibrium times the deviation of the cost.
+ */
+public abstract class CoolingSchedule implements Cloneable {
+  public double equilibrium = 0.1; // tolerance of the equilibrium detection in multiples of the deviation, 0 disables the detection
+  protected int nNodes;
+  protected int quality;
+  // statistics of the current step
+  protected int nMoves;
+  protected int nChanging; // number of moves, which changed the cost
+  protected int nAccepted; // number of accepted moves, which changed the cost
+  private double sum, sumSq; // sums of the cost after each move and its squares
+  private double windowSum, lastWindowMean;
+  private boolean hasLastWindow;
+  private boolean balanced;
+
+  /**
+   * Prepares a new annealing run.
+   * @param quality
+   * the maximum number of moves per node and temperature step
+   */
+  public void init (int nNodes, int quality) {
+    this.nNodes = nNodes;
+    this.quality = quality;
+  }
+
+  /**
+   * Forgets the statistics of the last temperature step.
+   */
+  public void startStep () {
+    nMoves = 0;
+    nChanging = 0;
+    nAccepted = 0;
+    sum = 0;
+    sumSq = 0;
+    windowSum = 0;
+    hasLastWindow = false;
+    balanced = false;
+  }
+
+  /**
+   * Records one move.
+   * @param cost
+   * the cost after the move was accepted or rejected
+   * @param dC
+   * the change of the cost, which the move would cause
+   */
+  public void record (int cost, double dC, boolean accepted) {
+    nMoves++;
+    if (dC != 0) {
+      nChanging++;
+      if (accepted) nAccepted++;
+    }
+    sum += cost;
+    sumSq += (double)cost * cost;
+    windowSum += cost;
+    if (equilibrium <= 0 || nMoves % nNodes != 0) return; // a window contains one move per node
+    double windowMean = windowSum / nNodes;
+    if (hasLastWindow && Math.abs(windowMean - lastWindowMean) <= equilibrium * deviation()) balanced = true;
+    lastWindowMean = windowMean;
+    hasLastWindow = true;
+    windowSum = 0;
+  }
+
+  /**
+   * @return true, if the current temperature step should end
+   */
+  public boolean stepDone () {
+    return balanced || nMoves >= (long)quality * nNodes;
+  }
+
+  /**
+   * @return the share of accepted moves among the moves, which changed the cost, in the current step
+   */
+  public double acceptance () {
+    if (nChanging == 0) return 0;
+    return (double)nAccepted / nChanging;
+  }
+
+  /**
+   * @return the mean cost in the current step
+   */
+  public double mean () {
+    if (nMoves == 0) return 0;
+    return sum / nMoves;
+  }
+
+  /**
+   * @return the standard deviation of the cost in the current step
+   */
+  public double deviation () {
+    if (nMoves == 0) return 0;
+    double m = sum / nMoves;
+    return Math.sqrt(Math.max(0, sumSq / nMoves - m * m));
+  }
+
+  /**
+   * @return a new schedule with the same settings, for example for an annealing in another thread
+   */
+  public CoolingSchedule copy () {
+    try {
+      return (CoolingSchedule)clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the temperature of the next step
+   */
+  public abstract double next (double T);
+}
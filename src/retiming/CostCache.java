@@ -0,0 +1,134 @@
+package retiming;
+
+import java.util.Random;
+
+/**
+ * Remembers the costs of already evaluated retimings, so that states, which are visited again, need not be scheduled again.
+ * For evaluations, which were stopped early, a lower bound of the cost is remembered.
+ * A retiming is identified by a 64 bit hash: each node gets a random key and the hash is the sum of lag[v] * key(v) over all nodes.
+ * So a rotation of node v by d changes the hash by d * key(v) and the hash can be updated in constant time.
+ * The cache is organized in sets of WAYS entries. If a set is full, an entry is replaced by the clock algorithm: entries, which were
+ * used since the hand passed them last, get a second chance.
+ */
+public class CostCache {
+  private static final int WAYS = 4;
+  private final long[] keys; // random key of each node
+  private final long[] hash; // hash of each entry
+  private final int[] cost; // cost of each entry, -1 for empty entries
+  private final boolean[] exact; // false, if the cost of the entry is only a lower bound
+  private final boolean[] referenced; // true, if the entry was used since the hand passed it
+  private final int[] hand; // clock hand of each set
+  private final int setMask;
+  public long hits = 0; // number of successful lookups
+  public long misses = 0; // number of failed lookups
+
+  /**
+   * @param nNodes
+   * the number of nodes of the graph
+   * @param capacity
+   * the maximum number of entries. It is rounded up to a power of two.
+   */
+  public CostCache (int nNodes, int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("The capacity of the cache must be positive!");
+    keys = new long[nNodes];
+    Random r = new Random(nNodes); // the keys need to be distinct, not unpredictable
+    for (int v = 0; v < nNodes; v++) keys[v] = r.nextLong();
+    int nSets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+    if (nSets * WAYS < capacity) nSets *= 2;
+    setMask = nSets - 1;
+    hash = new long[nSets * WAYS];
+    cost = new int[nSets * WAYS];
+    exact = new boolean[nSets * WAYS];
+    referenced = new boolean[nSets * WAYS];
+    hand = new int[nSets];
+    clear();
+  }
+
+  /**
+   * Forgets all entries and resets the counters.
+   */
+  public void clear () {
+    for (int i = 0; i < cost.length; i++) {
+      cost[i] = -1;
+      referenced[i] = false;
+    }
+    for (int s = 0; s < hand.length; s++) hand[s] = 0;
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * @return the random key of node v, which is added to the hash for each rotation of v into future
+   */
+  public long key (int v) {
+    return keys[v];
+  }
+
+  /**
+   * @return the hash of the retiming vector lag
+   */
+  public long hash (int[] lag) {
+    long h = 0;
+    for (int v = 0; v < lag.length; v++) h += lag[v] * keys[v];
+    return h;
+  }
+
+  private int set (long h) {
+    return (int)(h ^ (h >>> 32)) & setMask;
+  }
+
+  /**
+   * @param bound
+   * the highest cost, which is of interest. A lower bound, which exceeds bound, is sufficient.
+   * @return the cost of the retiming with hash h or a lower bound of it, which exceeds bound. -1 if neither is in the cache
+   */
+  public int get (long h, int bound) {
+    int base = set(h) * WAYS;
+    for (int i = base; i < base + WAYS; i++) {
+      if (cost[i] < 0 || hash[i] != h) continue;
+      if (!exact[i] && cost[i] <= bound) break; // the lower bound is not sufficient
+      referenced[i] = true;
+      hits++;
+      return cost[i];
+    }
+    misses++;
+    return -1;
+  }
+
+  /**
+   * Stores the cost of the retiming with hash h.
+   * @param exact
+   * false, if c is only a lower bound of the cost
+   */
+  public void put (long h, int c, boolean exact) {
+    int s = set(h);
+    int base = s * WAYS;
+    for (int i = base; i < base + WAYS; i++) {
+      if (cost[i] >= 0 && hash[i] != h) continue;
+      hash[i] = h; // empty entry or the same state
+      cost[i] = c;
+      this.exact[i] = exact;
+      referenced[i] = true;
+      return;
+    }
+    // clock: skip and clear referenced entries
+    while (referenced[base + hand[s]]) {
+      referenced[base + hand[s]] = false;
+      hand[s] = (hand[s] + 1) % WAYS;
+    }
+    int i = base + hand[s];
+    hand[s] = (hand[s] + 1) % WAYS;
+    hash[i] = h;
+    cost[i] = c;
+    this.exact[i] = exact;
+    referenced[i] = true;
+  }
+
+  /**
+   * @return the share of successful lookups
+   */
+  public double hitRate () {
+    if (hits + misses == 0) return 0;
+    return (double)hits / (hits + misses);
+  }
+}
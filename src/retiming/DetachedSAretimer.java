@@ -0,0 +1,18 @@
+package retiming;
+
+import scheduler.CompactGraph;
+
+/**
+ * Anneals a derived compact graph, like a coarse level or a part of the graph, whose nodes don't correspond one-to-one to the nodes
+ * of the graph. The retiming stays in lag and is not written into the graph, the caller transfers it to the original graph.
+ */
+class DetachedSAretimer extends SAretimer {
+  DetachedSAretimer (CompactGraph cg) {
+    super(cg);
+  }
+
+  @Override
+  protected void writeBack () {
+    // the nodes of a derived graph only represent the nodes of the graph
+  }
+}
@@ -0,0 +1,154 @@
+package retiming;
+
+import java.util.Arrays;
+
+import scheduler.CompactGraph;
+
+/**
+ * Maintains a topological order of the subgraph, that consists of all edges with weight 0.
+ * When a rotation creates new edges with weight 0, the order is repaired locally like in the algorithm of Pearce and Kelly:
+ * only the nodes between the ends of the violating edges, which are reachable from these ends, get new positions.
+ * Removed edges never violate the order, so nothing has to be done for them.
+ */
+public class DynamicTopologicalOrder {
+  private final CompactGraph cg;
+  private final int[] lag; // the retiming vector, which is shared with the retimer
+  public final int[] ord; // position of each node in the order
+  public final int[] node; // node at each position
+  private final boolean[] visited;
+  private final int[] stack;
+  private int[] forward; // nodes, that must be moved behind the affected region
+  private int[] backward; // nodes, that must be moved before the affected region
+  private int nForward, nBackward;
+
+  public DynamicTopologicalOrder (CompactGraph cg, int[] lag) {
+    this.cg = cg;
+    this.lag = lag;
+    ord = new int[cg.size()];
+    node = new int[cg.size()];
+    visited = new boolean[cg.size()];
+    stack = new int[cg.size()];
+    forward = new int[cg.size()];
+    backward = new int[cg.size()];
+  }
+
+  /**
+   * Computes the order from scratch.
+   */
+  public void init () {
+    if (cg.topologicalOrder(lag, node) < cg.size()) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+    for (int i = 0; i < node.length; i++) ord[node[i]] = i;
+  }
+
+  /**
+   * Repairs the order after node n was rotated.
+   * @param n
+   * the rotated node
+   * @param d
+   * the change of lag[n]: all incoming edges of n were changed by +d, all outgoing edges by -d
+   */
+  public void update (int n, int d) {
+    nForward = 0;
+    nBackward = 0;
+    if (d > 0) {
+      // outgoing edges of n may have become 0: their destinations must be behind n
+      int ub = ord[n];
+      int lb = ub;
+      for (int e = cg.succOff[n]; e < cg.succOff[n+1]; e++) {
+        if (cg.weight(e, lag) != 0 || ord[cg.dst[e]] > ub) continue;
+        if (ord[cg.dst[e]] < lb) lb = ord[cg.dst[e]];
+        searchForward(cg.dst[e], ub);
+      }
+      if (nForward == 0) return;
+      searchBackward(n, lb);
+    } else {
+      // incoming edges of n may have become 0: their sources must be before n
+      int lb = ord[n];
+      int ub = lb;
+      for (int i = cg.predOff[n]; i < cg.predOff[n+1]; i++) {
+        int e = cg.predEdge[i];
+        if (cg.weight(e, lag) != 0 || ord[cg.src[e]] < lb) continue;
+        if (ord[cg.src[e]] > ub) ub = ord[cg.src[e]];
+        searchBackward(cg.src[e], lb);
+      }
+      if (nBackward == 0) return;
+      searchForward(n, ub);
+    }
+    reorder();
+  }
+
+  /**
+   * Collects all nodes reachable from v with a position lower than ub.
+   */
+  private void searchForward (int v, int ub) {
+    if (visited[v]) return;
+    int size = 0;
+    stack[size++] = v;
+    visited[v] = true;
+    while (size > 0) {
+      int u = stack[--size];
+      forward[nForward++] = u;
+      for (int e = cg.succOff[u]; e < cg.succOff[u+1]; e++) {
+        if (cg.weight(e, lag) != 0) continue;
+        int s = cg.dst[e];
+        if (ord[s] == ub) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+        if (visited[s] || ord[s] > ub) continue;
+        stack[size++] = s;
+        visited[s] = true;
+      }
+    }
+  }
+
+  /**
+   * Collects all nodes, that reach v and have a position higher than lb.
+   */
+  private void searchBackward (int v, int lb) {
+    if (visited[v]) return;
+    int size = 0;
+    stack[size++] = v;
+    visited[v] = true;
+    while (size > 0) {
+      int u = stack[--size];
+      backward[nBackward++] = u;
+      for (int i = cg.predOff[u]; i < cg.predOff[u+1]; i++) {
+        int e = cg.predEdge[i];
+        if (cg.weight(e, lag) != 0) continue;
+        int p = cg.src[e];
+        if (visited[p] || ord[p] < lb) continue;
+        stack[size++] = p;
+        visited[p] = true;
+      }
+    }
+  }
+
+  /**
+   * Gives the positions of all collected nodes to the backward nodes first and then to the forward nodes.
+   * The relative order of the nodes within both groups is kept.
+   */
+  private void reorder () {
+    // sort both groups by their current positions
+    for (int i = 0; i < nBackward; i++) backward[i] = ord[backward[i]];
+    for (int i = 0; i < nForward; i++) forward[i] = ord[forward[i]];
+    Arrays.sort(backward, 0, nBackward);
+    Arrays.sort(forward, 0, nForward);
+    for (int i = 0; i < nBackward; i++) backward[i] = node[backward[i]];
+    for (int i = 0; i < nForward; i++) forward[i] = node[forward[i]];
+    // merge the positions of both groups into stack
+    int b = 0, f = 0;
+    for (int i = 0; i < nBackward + nForward; i++) {
+      if (f >= nForward || (b < nBackward && ord[backward[b]] < ord[forward[f]])) stack[i] = ord[backward[b++]];
+      else stack[i] = ord[forward[f++]];
+    }
+    // assign positions
+    for (int i = 0; i < nBackward; i++) {
+      ord[backward[i]] = stack[i];
+      node[stack[i]] = backward[i];
+      visited[backward[i]] = false;
+    }
+    for (int i = 0; i < nForward; i++) {
+      ord[forward[i]] = stack[nBackward + i];
+      node[stack[nBackward + i]] = forward[i];
+      visited[forward[i]] = false;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package retiming;
+
+import scheduler.CompactGraph;
+
+/**
+ * Keeps the longest path of a graph up to date while edge weights are changed.
+ * For every node, the arrival time (the longest path ending before the node) and the tail (the longest path starting at the node,
+ * including its own delay) are stored. After a node was rotated, only the nodes behind (arrival) or before (tail) the edges,
+ * which changed from or to weight 0, are recomputed. The nodes are processed in the maintained topological order, so every node
+ * is recomputed at most once per update. All changes are recorded, so that they can be undone cheaply.
+ */
+public class IncrementalLongestPath {
+  private final CompactGraph cg;
+  private final int[] lag; // the retiming vector, which is shared with the retimer
+  private final DynamicTopologicalOrder order;
+  public final int[] arrival; // longest path (delayed) ending before each node, this is the ASAP start time
+  public final int[] tail; // longest path (delayed) starting at each node. The latest start time of a node is length()-tail[v]
+  private int[] nFinish; // number of nodes, that end at each time slot (including the path after the node outside of the graph)
+  private final int sumDelay;
+  private int[] release = null; // earliest start time of each node, null for 0
+  private int[] exit = null; // length of the path after each node outside of the graph, null for 0
+  private int longestPath = 0; // upper bound for the maximum index of nFinish, that is not 0
+  private final int[] heap; // nodes to be recomputed, sorted by their position in the topological order
+  private final boolean[] queued;
+  private int heapSize = 0;
+  private boolean reverse = false; // if true, the heap delivers the last node of the order first
+  private int[] trail = new int[64]; // pairs of node and old value - arrival values are stored as v, tail values as -1-v
+  private int trailSize = 0;
+  private final int[] single = new int[1];
+
+  /**
+   * @param order
+   * the topological order of the zero-weight edges. It must be updated before update() is called.
+   */
+  public IncrementalLongestPath (CompactGraph cg, int[] lag, DynamicTopologicalOrder order) {
+    this.cg = cg;
+    this.lag = lag;
+    this.order = order;
+    arrival = new int[cg.size()];
+    tail = new int[cg.size()];
+    int sumDelay = 0;
+    for (int v = 0; v < cg.size(); v++) sumDelay += cg.delay[v];
+    this.sumDelay = sumDelay;
+    nFinish = new int[sumDelay + 1];
+    heap = new int[cg.size()];
+    queued = new boolean[cg.size()];
+  }
+
+  /**
+   * Regards paths, which come from or lead to nodes outside of the graph, for example, if the graph is a part of a larger graph.
+   * A path from outside delays the start of a node, a path to outside is added to the tail of a node. init() must be called afterwards.
+   * @param release
+   * the earliest start time of each node, null for 0
+   * @param exit
+   * the length of the path after each node outside of the graph, null for 0
+   */
+  public void setExternalPaths (int[] release, int[] exit) {
+    this.release = release;
+    this.exit = exit;
+    int maxRelease = 0, maxExit = 0;
+    for (int v = 0; v < cg.size(); v++) {
+      if (release != null) maxRelease = Math.max(maxRelease, release[v]);
+      if (exit != null) maxExit = Math.max(maxExit, exit[v]);
+    }
+    nFinish = new int[maxRelease + sumDelay + maxExit + 1];
+  }
+
+  /**
+   * Computes all arrival and tail values from scratch and forgets all recorded changes. The order must be valid.
+   */
+  public void init () {
+    int n = cg.size();
+    for (int i = 0; i < nFinish.length; i++) nFinish[i] = 0;
+    for (int i = 0; i < n; i++) {
+      int v = order.node[i];
+      arrival[v] = newArrival(v);
+      nFinish[finish(v)]++;
+    }
+    for (int i = n-1; i >= 0; i--) tail[order.node[i]] = newTail(order.node[i]);
+    longestPath = nFinish.length - 1;
+    trailSize = 0;
+  }
+
+  /**
+   * @return the longest path (delayed) in the graph
+   */
+  public int length () {
+    while (longestPath > 0 && nFinish[longestPath] == 0) longestPath--;
+    return longestPath;
+  }
+
+  /**
+   * @return the slack of node v: the number of cycles, v could be delayed without extending the longest path.
+   * Nodes on a critical path have slack 0.
+   */
+  public int slack (int v) {
+    return length() - arrival[v] - tail[v];
+  }
+
+  /**
+   * @return the end of v, including the path after v outside of the graph
+   */
+  private int finish (int v) {
+    if (exit == null) return arrival[v] + cg.delay[v];
+    return arrival[v] + cg.delay[v] + exit[v];
+  }
+
+  private int newArrival (int v) {
+    int a = release == null ? 0 : release[v];
+    for (int i = cg.predOff[v]; i < cg.predOff[v+1]; i++) {
+      int e = cg.predEdge[i];
+      if (cg.weight(e, lag) != 0) continue; // don't regard edges to later iterations
+      int u = cg.src[e];
+      if (arrival[u] + cg.delay[u] > a) a = arrival[u] + cg.delay[u];
+    }
+    return a;
+  }
+
+  private int newTail (int v) {
+    int t = exit == null ? 0 : exit[v];
+    for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+      if (cg.weight(e, lag) != 0) continue; // don't regard edges to later iterations
+      if (tail[cg.dst[e]] > t) t = tail[cg.dst[e]];
+    }
+    return t + cg.delay[v];
+  }
+
+  private void setArrival (int v, int a) {
+    nFinish[finish(v)]--;
+    arrival[v] = a;
+    nFinish[finish(v)]++;
+    if (finish(v) > longestPath) longestPath = finish(v);
+  }
+
+  private void record (int key, int oldValue) {
+    if (trailSize + 2 > trail.length) {
+      int[] t = new int[trail.length * 2];
+      System.arraycopy(trail, 0, t, 0, trailSize);
+      trail = t;
+    }
+    trail[trailSize++] = key;
+    trail[trailSize++] = oldValue;
+  }
+
+  private boolean before (int v, int w) {
+    if (reverse) return order.ord[v] > order.ord[w];
+    return order.ord[v] < order.ord[w];
+  }
+
+  private void push (int v) {
+    if (queued[v]) return;
+    queued[v] = true;
+    int i = heapSize++;
+    while (i > 0) {
+      int p = (i-1) / 2;
+      if (!before(v, heap[p])) break;
+      heap[i] = heap[p];
+      i = p;
+    }
+    heap[i] = v;
+  }
+
+  private int pop () {
+    int top = heap[0];
+    int v = heap[--heapSize];
+    int i = 0;
+    while (2*i+1 < heapSize) {
+      int c = 2*i+1;
+      if (c+1 < heapSize && before(heap[c+1], heap[c])) c++;
+      if (!before(heap[c], v)) break;
+      heap[i] = heap[c];
+      i = c;
+    }
+    heap[i] = v;
+    queued[top] = false;
+    return top;
+  }
+
+  /**
+   * Updates the arrival and tail values after node n was rotated.
+   * @param n
+   * the rotated node
+   * @param d
+   * the change of lag[n]: all incoming edges of n were changed by +d, all outgoing edges by -d
+   */
+  public void update (int n, int d) {
+    single[0] = n;
+    update(single, 1, d);
+  }
+
+  /**
+   * Updates the arrival and tail values after a group of nodes was rotated together.
+   * @param nodes
+   * the rotated nodes
+   * @param count
+   * the number of rotated nodes in nodes
+   * @param d
+   * the change of the lag of each rotated node
+   */
+  public void update (int[] nodes, int count, int d) {
+    update(nodes, count, d, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Updates the arrival and tail values like update(nodes, count, d), but stops as soon as a path longer than bound is found.
+   * In this case, the values are incomplete and undo() must be called before the next update.
+   * @return
+   * false, if the update was aborted, because the longest path exceeds bound
+   */
+  public boolean update (int[] nodes, int count, int d, int bound) {
+    // forward pass: recompute arrival values in the fan-out cone
+    reverse = false;
+    for (int j = 0; j < count; j++) {
+      int n = nodes[j];
+      push(n);
+      for (int e = cg.succOff[n]; e < cg.succOff[n+1]; e++) {
+        int w = cg.weight(e, lag);
+        if (w != 0 && w + d != 0) continue; // zero-state of edge not changed
+        push(cg.dst[e]);
+      }
+    }
+    while (heapSize > 0) {
+      int v = pop();
+      int a = newArrival(v);
+      if (a == arrival[v]) continue;
+      record(v, arrival[v]);
+      setArrival(v, a);
+      if (finish(v) > bound) { // arrival values are final in topological order, so the longest path can only grow
+        while (heapSize > 0) queued[heap[--heapSize]] = false;
+        return false;
+      }
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) if (cg.weight(e, lag) == 0) push(cg.dst[e]);
+    }
+    // backward pass: recompute tail values in the fan-in cone
+    reverse = true;
+    for (int j = 0; j < count; j++) {
+      int n = nodes[j];
+      push(n);
+      for (int i = cg.predOff[n]; i < cg.predOff[n+1]; i++) {
+        int e = cg.predEdge[i];
+        int w = cg.weight(e, lag);
+        if (w != 0 && w - d != 0) continue; // zero-state of edge not changed
+        push(cg.src[e]);
+      }
+    }
+    while (heapSize > 0) {
+      int v = pop();
+      int t = newTail(v);
+      if (t == tail[v]) continue;
+      record(-1-v, tail[v]);
+      tail[v] = t;
+      for (int i = cg.predOff[v]; i < cg.predOff[v+1]; i++) {
+        int e = cg.predEdge[i];
+        if (cg.weight(e, lag) == 0) push(cg.src[e]);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Accepts all changes since the last call of commit() or init().
+   */
+  public void commit () {
+    trailSize = 0;
+  }
+
+  /**
+   * Restores the arrival and tail values of the last call of commit() or init().
+   * The retiming vector must have been restored before.
+   */
+  public void undo () {
+    while (trailSize > 0) {
+      int oldValue = trail[--trailSize];
+      int key = trail[--trailSize];
+      if (key >= 0) setArrival(key, oldValue);
+      else tail[-1-key] = oldValue;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package retiming;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+
+/**
+ * Computes the iteration bound of a graph: the maximum over all cycles of the summed delay of the nodes divided by the summed weight of the edges.
+ * Retiming doesn't change the weight of a cycle, and a cycle of weight w must contain a path of weight 0, whose delay is at least 1/w of the delay
+ * of the cycle. So no retiming can reach a longest path below the iteration bound or below the largest delay of a node.
+ * The maximum cycle ratio is found by the policy iteration of Howard (in the version of Cochet-Terrasson et al.): each node chooses
+ * one outgoing edge, the cycles of this policy graph are evaluated and the choices are improved, until no choice can be improved.
+ */
+public class IterationBound {
+  private static final double EPS = 1e-9;
+
+  /**
+   * @return the maximum cycle ratio of the graph, 0 if it has no cycles
+   */
+  public static double maxCycleRatio (Graph g) {
+    return maxCycleRatio(g.compact());
+  }
+
+  /**
+   * @return the lowest longest path, which can be reached by retiming: the iteration bound rounded up or the largest delay
+   */
+  public static int lowerBound (Graph g) {
+    return lowerBound(g.compact());
+  }
+
+  /**
+   * @return the lowest longest path, which can be reached by retiming: the iteration bound rounded up or the largest delay
+   */
+  public static int lowerBound (CompactGraph cg) {
+    int bound = (int)Math.ceil(maxCycleRatio(cg) - EPS);
+    for (int v = 0; v < cg.size(); v++) if (cg.delay[v] > bound) bound = cg.delay[v];
+    return bound;
+  }
+
+  /**
+   * @return the maximum cycle ratio of the graph, 0 if it has no cycles
+   */
+  public static double maxCycleRatio (CompactGraph cg) {
+    int n = cg.size();
+    // only edges within strongly connected components can be part of a cycle
+    int[] component = new int[n];
+    cg.components(component);
+    int[] policy = new int[n]; // chosen outgoing edge of each node, -1 for nodes, that are not on a cycle
+    boolean cyclic = false;
+    for (int v = 0; v < n; v++) {
+      policy[v] = -1;
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+        if (component[cg.dst[e]] != component[v]) continue;
+        policy[v] = e;
+        cyclic = true;
+        break;
+      }
+    }
+    if (!cyclic) return 0;
+    double[] ratio = new double[n]; // ratio of the cycle, which is reached from each node in the policy graph
+    double[] potential = new double[n];
+    int[] visit = new int[n]; // number of the walk, which visited a node first
+    int[] path = new int[n];
+    while (true) {
+      evaluate(cg, policy, ratio, potential, visit, path);
+      // improve policy: prefer edges to nodes, which reach cycles with higher ratio
+      boolean changed = false;
+      for (int v = 0; v < n; v++) {
+        if (policy[v] < 0) continue;
+        for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+          int w = cg.dst[e];
+          if (policy[w] < 0 || component[w] != component[v]) continue;
+          if (ratio[w] > ratio[v] + EPS) {
+            policy[v] = e;
+            ratio[v] = ratio[w];
+            changed = true;
+          }
+        }
+      }
+      if (!changed) { // second stage: with equal ratios, prefer edges to nodes with higher potential
+        for (int v = 0; v < n; v++) {
+          if (policy[v] < 0) continue;
+          for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+            int w = cg.dst[e];
+            if (policy[w] < 0 || component[w] != component[v] || Math.abs(ratio[w] - ratio[v]) > EPS) continue;
+            double p = cg.delay[v] - ratio[v] * cg.weight[e] + potential[w];
+            if (p > potential[v] + EPS) {
+              policy[v] = e;
+              potential[v] = p;
+              changed = true;
+            }
+          }
+        }
+      }
+      if (!changed) break;
+    }
+    double max = 0;
+    for (int v = 0; v < n; v++) if (policy[v] >= 0 && ratio[v] > max) max = ratio[v];
+    return max;
+  }
+
+  /**
+   * Computes the ratio of the reached cycle and the potential of each node in the policy graph.
+   * The potential of a node on a cycle is 0 for one node of the cycle, each other node has the potential
+   * of its policy successor plus the delay of the node minus ratio times the weight of the policy edge.
+   */
+  private static void evaluate (CompactGraph cg, int[] policy, double[] ratio, double[] potential, int[] visit, int[] path) {
+    int n = cg.size();
+    for (int v = 0; v < n; v++) visit[v] = 0;
+    int walk = 0;
+    for (int r = 0; r < n; r++) {
+      if (policy[r] < 0 || visit[r] != 0) continue;
+      // follow the policy until a visited node is reached
+      walk++;
+      int len = 0;
+      int v = r;
+      while (visit[v] == 0) {
+        visit[v] = walk;
+        path[len++] = v;
+        v = cg.dst[policy[v]];
+      }
+      int end = len; // nodes path[0 .. end-1] get their values from v
+      if (visit[v] == walk) { // a new cycle was found, it starts at v
+        long delay = 0, weight = 0;
+        int u = v;
+        do {
+          delay += cg.delay[u];
+          weight += cg.weight[policy[u]];
+          u = cg.dst[policy[u]];
+        } while (u != v);
+        if (weight == 0) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+        double lambda = (double)delay / weight;
+        // v gets potential 0, the other nodes of the cycle are computed backwards along the path
+        ratio[v] = lambda;
+        potential[v] = 0;
+        while (path[end-1] != v) {
+          u = path[--end];
+          int e = policy[u];
+          ratio[u] = lambda;
+          potential[u] = cg.delay[u] - lambda * cg.weight[e] + potential[cg.dst[e]];
+        }
+        end--; // v itself is done
+      }
+      for (int i = end-1; i >= 0; i--) {
+        int u = path[i];
+        int e = policy[u];
+        ratio[u] = ratio[cg.dst[e]];
+        potential[u] = cg.delay[u] - ratio[u] * cg.weight[e] + potential[cg.dst[e]];
+      }
+    }
+  }
+}
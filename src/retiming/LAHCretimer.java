@@ -0,0 +1,64 @@
+package retiming;
+
+import scheduler.Graph;
+
+/**
+ * Late acceptance hill climbing of Burke and Bykov: a move is accepted, if its cost is not higher than the current cost or
+ * than the cost, which the search had history moves before. So the search can leave local minima without a temperature,
+ * the length of the history is the only parameter.
+ */
+public class LAHCretimer extends LocalSearchRetimer {
+  public int history = 10; // number of moves, after which a cost is used for the acceptance
+  public float dirChangeInterval = 5f; // mean number of moves per node, before the direction of rotation changes
+  
+  public LAHCretimer (Graph graph) {
+    super(graph);
+  }
+  
+  /**
+   * Searches a retiming with low cost by late acceptance hill climbing.
+   * @param quality
+   * the search stops after quality moves per node without improvement of the best cost
+   */
+  @Override
+  public int[] retime (int quality) {
+    int C = start();
+    int startC = C;
+    int nCycles = 0;
+    int bound = stopAtBound ? lowerBound() : 0;
+    int[] past = new int[Math.max(1, history)]; // costs of the last moves
+    for (int i = 0; i < past.length; i++) past[i] = C;
+    long lastImprovement = 0;
+    long nextDirChange = 0;
+    boolean dir = false;
+    if (C <= bound) stopReason = StopReason.OPTIMAL;
+    else if (targetCost > 0 && C <= targetCost) stopReason = StopReason.TARGET;
+    else if (quality > 0) for (long it = 1; ; it++) {
+      nCycles++;
+      if (it >= nextDirChange) { // registers are pushed over several moves in the same direction
+        dir = random.nextDouble() < 0.5;
+        nextDirChange = it + (long)(dirChangeInterval * cg.size() * random.nextDouble());
+      }
+      if (!prepareMove(dir)) {
+        dir = !dir;
+        if (!prepareMove(dir)) {
+          stopReason = StopReason.NO_MOVES;
+          break;
+        }
+      }
+      rotateMove(dir);
+      int v = (int)(it % past.length);
+      int limit = Math.max(past[v], C);
+      int newC = moveCost(dir, Math.min(limit, Integer.MAX_VALUE - 1));
+      if (newC <= limit) {
+        double dC = newC - C;
+        C = newC;
+        if (accept(dir, C, dC)) lastImprovement = it;
+      } else reject(dir);
+      past[v] = C;
+      if (stop(bound, nCycles, it - lastImprovement)) break;
+      if (it - lastImprovement >= (long)quality * cg.size()) break;
+    }
+    return finish(startC, C, nCycles);
+  }
+}
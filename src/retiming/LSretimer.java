@@ -0,0 +1,79 @@
+package retiming;
+
+import scheduler.Graph;
+
+/**
+ * Exact minimum-period retiming of Leiserson and Saxe. The lowest period (longest path) is searched by bisection between
+ * lowerBound() and the longest path of the graph. Each candidate period c is tested with the relaxation FEAS: |V|-1 times, every node,
+ * whose path ends later than c, is rotated once. If c can be reached, the paths fit into c after at most |V|-1 rounds and the retiming
+ * stays legal in every round. The algorithm is deterministic and needs O(|V||E| log(period)) time.
+ * The result is written into the graph, so a following SAretimer can start from it.
+ */
+public class LSretimer extends Retimer {
+  private final int[] bestLag;
+  private int nCycles; // number of FEAS rounds of the last call of minPeriod()
+  
+  public LSretimer (Graph graph) {
+    super(graph);
+    bestLag = new int[cg.size()];
+  }
+  
+  /**
+   * Tests, whether the given period can be reached, with the relaxation FEAS, which starts from the current retiming.
+   * @return
+   * the number of rounds, negative, if the period cannot be reached. lag holds the retiming of the last round.
+   */
+  private int feasible (int period) {
+    for (int round = 1; round < Math.max(2, cg.size()); round++) {
+      int length;
+      try {
+        length = longestPath();
+      } catch (IllegalArgumentException e) { // zero-weight cycle: only possible, if the period cannot be reached
+        return -round;
+      }
+      if (length <= period) return round;
+      for (int v = 0; v < cg.size(); v++) if (startTime[v] + cg.delay[v] > period) lag[v]++;
+      for (int e = 0; e < cg.edges(); e++) if (cg.weight(e, lag) < 0) return -round;
+    }
+    return longestPath() <= period ? cg.size() : -cg.size();
+  }
+  
+  /**
+   * Computes a retiming with the lowest possible longest path.
+   * @param quality
+   * is not used, the result is always optimal
+   */
+  @Override
+  public int[] retime (int quality) {
+    startClock();
+    int startC = longestPath();
+    int C = minPeriod();
+    stopReason = C <= lowerBound() ? StopReason.OPTIMAL : StopReason.FINISHED;
+    writeBack();
+    return new int[]{startC, C, nCycles, C};
+  }
+  
+  /**
+   * Computes the lowest period and a retiming, which reaches it, without writing it into the graph.
+   * @return
+   * the lowest period
+   */
+  public int minPeriod () {
+    int startC = longestPath();
+    System.arraycopy(lag, 0, bestLag, 0, lag.length);
+    int lo = Math.min(lowerBound(), startC), hi = startC; // hi can always be reached
+    nCycles = 0;
+    while (lo < hi) {
+      int period = (lo + hi) / 2;
+      System.arraycopy(bestLag, 0, lag, 0, lag.length); // FEAS may start from any legal retiming
+      int rounds = feasible(period);
+      nCycles += Math.abs(rounds);
+      if (rounds > 0) {
+        hi = period;
+        System.arraycopy(lag, 0, bestLag, 0, lag.length);
+      } else lo = period + 1;
+    }
+    System.arraycopy(bestLag, 0, lag, 0, lag.length);
+    return longestPath();
+  }
+}
@@ -0,0 +1,27 @@
+package retiming;
+
+/**
+ * Adaptive schedule of Lam and Delosme. The inverse temperature s = 1/T is increased by
+ * lambda / sigma * 1/(s*sigma)^2 * 4a(1-a)^2/(2-a)^2, where sigma is the deviation of the cost and a the acceptance ratio of the last step.
+ * So the temperature falls fast, where the cost hardly depends on it, and slowly in the region, where the acceptance ratio is near 0.44.
+ * The reduction is limited to the range of minFactor to maxFactor, because the formula is not defined without deviation
+ * and stalls, if all moves are accepted.
+ */
+public class LamDelosmeCooling extends CoolingSchedule {
+  public double lambda = 0.1; // smaller values cool more slowly and give better results
+  public double minFactor = 0.5; // the temperature is reduced at most to T * minFactor
+  public double maxFactor = 0.95; // the temperature is reduced at least to T * maxFactor
+
+  @Override
+  public double next (double T) {
+    double a = acceptance();
+    double sigma = deviation();
+    if (sigma <= 0) return T * minFactor; // the cost doesn't change at this temperature
+    double s = 1 / T;
+    double g = 4 * a * (1-a) * (1-a) / ((2-a) * (2-a));
+    double newT = 1 / (s + lambda / sigma / (s * s * sigma * sigma) * g);
+    if (newT < T * minFactor) return T * minFactor;
+    if (newT > T * maxFactor) return T * maxFactor;
+    return newT;
+  }
+}
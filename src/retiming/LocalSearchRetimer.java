@@ -0,0 +1,436 @@
+package retiming;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+import scheduler.ListScheduler;
+import scheduler.ResourceBound;
+
+/**
+ * Base of the retimers, which search by rotating nodes or clusters of nodes one move at a time.
+ * It provides the move proposals (uniform, near the critical path, adaptive or cluster moves), the incremental cost evaluation
+ * with early stop, the cost cache, the tracking of the best retiming and the stopping criteria. The subclasses decide,
+ * which moves are accepted.
+ * A search starts with start(), a move is proposed with prepareMove(), applied with rotateMove() and evaluated with moveCost().
+ * Then it must be either accepted with accept() or reverted with reject(). finish() restores the best retiming.
+ */
+public abstract class LocalSearchRetimer extends Retimer {
+  public ListScheduler scheduler = null; // if this value is set, the real length of the schedule is used as the cost-function
+  public double criticalShare = 0; // share of moves, that are drawn near the critical path. The other moves choose nodes uniformly.
+  public int criticalCandidates = 8; // number of rotatable nodes, from which the one with the smallest slack is chosen near the critical path
+  public boolean adaptive = false; // if true, nodes are drawn according to the success of their former rotations
+  public int clusterSize = 1; // maximum number of nodes, which are rotated together in one move. 1 disables cluster moves
+  public double clusterShare = 0.5; // share of cluster moves, if clusterSize > 1
+  public int cacheSize = 0; // number of schedule costs, which are remembered to skip the scheduling of revisited retimings. 0 disables the cache
+  public CostCache cache = null; // created by start(), if cacheSize > 0 and the schedule is used as cost. It holds the hit counters
+  public Random random = new Random(); // source of all random decisions. Set a seeded instance to repeat a search
+  private long hash = 0; // hash of the current retiming, maintained if cache is used
+  private final int[] bestLag; // best retiming found so far
+  protected int bestC;
+  private final int[] journal; // accepted rotations since bestLag was stored: n for rotations into future, -1-n for rotations into past
+  private int journalSize = 0; // -1, if the journal overflowed and bestLag must be copied
+  protected final DynamicTopologicalOrder order;
+  protected final IncrementalLongestPath timing;
+  protected final RotatableNodes rotatable;
+  public final AdaptiveProposals proposals; // used, if adaptive is true
+  protected int[] move = new int[1]; // nodes of the current move, in the order they are rotated
+  protected int moveSize = 0;
+  private boolean[] inMove;
+  
+  public LocalSearchRetimer (Graph graph) {
+    this(graph.compact());
+  }
+  
+  protected LocalSearchRetimer (CompactGraph cg) {
+    super(cg);
+    order = new DynamicTopologicalOrder(cg, lag);
+    timing = new IncrementalLongestPath(cg, lag, order);
+    rotatable = new RotatableNodes(cg, lag);
+    proposals = new AdaptiveProposals(cg, rotatable);
+    inMove = new boolean[cg.size()];
+    bestLag = new int[cg.size()];
+    journal = new int[cg.size()];
+  }
+  
+  /**
+   * Returns a randomly chosen node, which can be rotated in desired direction.
+   * With probability criticalShare, criticalCandidates nodes are drawn and the one with the smallest slack is returned,
+   * so nodes on or near the critical path are preferred. Rotations of other nodes cannot change the longest path.
+   * @param rotDir
+   * true, if node should be forward-rotated (into future), false otherwise
+   * @return
+   * the index of the node, which can be rotated, -1 if no node can be rotated in given direction
+   */
+  private int findRotatableNode (boolean rotDir) {
+    int n = drawNode(rotDir);
+    if (n < 0 || criticalShare <= 0 || random.nextDouble() >= criticalShare) return n;
+    int slack = timing.slack(n);
+    for (int i = 1; i < criticalCandidates && slack > 0; i++) {
+      int m = drawNode(rotDir);
+      int s = timing.slack(m);
+      if (s >= slack) continue;
+      n = m;
+      slack = s;
+    }
+    return n;
+  }
+  
+  /**
+   * Prepares a move, that rotates node n together with all nodes, that are connected to n by zero-weight edges in the direction
+   * of rotation (the fan-out of n for rotations into future, the fan-in for rotations into past). So a register can be moved
+   * over a whole pipeline boundary at once. The nodes are stored in move in an order, in which they can be rotated one by one.
+   * @return
+   * false, if the cluster would be larger than clusterSize or contains a node, which must not be rotated
+   */
+  private boolean findCluster (int n, boolean rotDir) {
+    if (move.length < clusterSize) move = new int[clusterSize];
+    moveSize = 0;
+    move[moveSize++] = n;
+    inMove[n] = true;
+    boolean fits = true;
+    search: for (int j = 0; j < moveSize; j++) {
+      int v = move[j];
+      if (rotatable.movable != null && !rotatable.movable[v]) {
+        fits = false;
+        break;
+      }
+      if (rotDir) {
+        for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+          if (cg.weight(e, lag) != 0 || inMove[cg.dst[e]]) continue;
+          if (moveSize == clusterSize) {
+            fits = false;
+            break search;
+          }
+          move[moveSize++] = cg.dst[e];
+          inMove[cg.dst[e]] = true;
+        }
+      } else {
+        for (int i = cg.predOff[v]; i < cg.predOff[v+1]; i++) {
+          int e = cg.predEdge[i];
+          if (cg.weight(e, lag) != 0 || inMove[cg.src[e]]) continue;
+          if (moveSize == clusterSize) {
+            fits = false;
+            break search;
+          }
+          move[moveSize++] = cg.src[e];
+          inMove[cg.src[e]] = true;
+        }
+      }
+    }
+    for (int j = 0; j < moveSize; j++) inMove[move[j]] = false;
+    if (!fits) return false;
+    // rotations into future start at the end of the cluster, rotations into past at its beginning
+    for (int j = 0; j < moveSize; j++) move[j] = order.ord[move[j]];
+    Arrays.sort(move, 0, moveSize);
+    for (int j = 0; j < moveSize; j++) move[j] = order.node[move[j]];
+    if (rotDir) for (int j = 0; j < moveSize/2; j++) {
+      int v = move[j];
+      move[j] = move[moveSize-1-j];
+      move[moveSize-1-j] = v;
+    }
+    return true;
+  }
+  
+  /**
+   * Returns a randomly chosen node for a cluster move. This node doesn't need to be rotatable on its own.
+   * Like in findRotatableNode, nodes with small slack are preferred with probability criticalShare.
+   */
+  private int findClusterSeed () {
+    int n = (int)(random.nextDouble() * cg.size());
+    if (criticalShare <= 0 || random.nextDouble() >= criticalShare) return n;
+    int slack = timing.slack(n);
+    for (int i = 1; i < criticalCandidates && slack > 0; i++) {
+      int m = (int)(random.nextDouble() * cg.size());
+      int s = timing.slack(m);
+      if (s >= slack) continue;
+      n = m;
+      slack = s;
+    }
+    return n;
+  }
+  
+  /**
+   * Prepares a move in the given direction: a cluster move with probability clusterShare, otherwise the rotation of a single node.
+   * @return
+   * false, if no node can be rotated in the given direction
+   */
+  protected boolean prepareMove (boolean rotDir) {
+    if (clusterSize > 1 && random.nextDouble() < clusterShare && findCluster(findClusterSeed(), rotDir)) return true;
+    int n = findRotatableNode(rotDir);
+    if (n < 0) return false;
+    move[0] = n;
+    moveSize = 1;
+    return true;
+  }
+  
+  /**
+   * Applies the prepared move.
+   */
+  protected void rotateMove (boolean rotDir) {
+    for (int j = 0; j < moveSize; j++) rotateNode(move[j], rotDir);
+  }
+  
+  /**
+   * Reverts the prepared move after it was applied.
+   */
+  protected void revertMove (boolean rotDir) {
+    for (int j = moveSize-1; j >= 0; j--) rotateNode(move[j], !rotDir);
+  }
+  
+  /**
+   * Sets the nodes of the current move, for example a move, which was prepared by another retimer of the same compact graph.
+   */
+  protected void setMove (int[] nodes, int size) {
+    if (move.length < size) move = new int[size];
+    System.arraycopy(nodes, 0, move, 0, size);
+    moveSize = size;
+  }
+  
+  /**
+   * Applies a move and updates the longest paths without computing its cost. The move must be accepted afterwards.
+   */
+  protected void applyMove (int[] nodes, int size, boolean rotDir) {
+    setMove(nodes, size);
+    rotateMove(rotDir);
+    timing.update(move, moveSize, rotDir ? 1 : -1);
+  }
+  
+  /**
+   * Computes the cost of a move like moveCost(), but reverts the move afterwards.
+   * The retiming and the costs stay unchanged, the internal order of the data structures may change.
+   */
+  protected int evaluate (int[] nodes, int size, boolean rotDir, int bound) {
+    setMove(nodes, size);
+    rotateMove(rotDir);
+    int c = moveCost(rotDir, bound);
+    revertMove(rotDir);
+    timing.undo();
+    return c;
+  }
+  
+  /**
+   * @return a node, which can be rotated in the given direction. It is drawn uniformly or, in adaptive mode, according to its score.
+   */
+  private int drawNode (boolean rotDir) {
+    if (adaptive) return proposals.sample(rotDir, random.nextDouble());
+    return rotatable.sample(rotDir, random.nextDouble());
+  }
+  
+  /**
+   * Applies a rotation on a given node.
+   * @param n
+   * the index of the node to be rotated
+   * @param rotDir
+   * the direction of rotation (if true, node is rotated into future, if false into past)
+   */
+  private void rotateNode (int n, boolean rotDir) {
+    int d = rotDir ? 1 : -1;
+    // increments (decrements) the weight of all incoming edges and decrements (increments) the weight of all outgoing edges
+    lag[n] += d;
+    /*
+     * There is no need to add an exception for edges pointing to their own source node.
+     * The lag is added and subtracted in the weight of such edges.
+     */
+    order.update(n, d);
+    rotatable.update(n, d);
+    if (adaptive) proposals.moved(n);
+    if (cache != null) hash += d * cache.key(n);
+  }
+  
+  private int cost () {
+    order.init();
+    rotatable.init();
+    if (adaptive) proposals.init();
+    timing.init();
+    if (cache != null) hash = cache.hash(lag);
+    if (scheduler != null) return scheduleCost();
+    return timing.length();
+  }
+  
+  /**
+   * Computes the cost after the prepared move was applied. Only the paths around the moved nodes are updated,
+   * they are also required for the slack of the nodes.
+   * @param bound
+   * the highest cost, which would be accepted. The evaluation stops, as soon as the cost is known to exceed bound.
+   * @return
+   * the cost, if it does not exceed bound, otherwise a value greater than bound
+   */
+  protected int moveCost (boolean rotDir, int bound) {
+    // the longest path is a lower bound of the schedule length, too
+    if (!timing.update(move, moveSize, rotDir ? 1 : -1, bound)) return bound + 1;
+    if (scheduler != null) return scheduleCost(bound);
+    return timing.length();
+  }
+  
+  private int scheduleCost () {
+    return scheduleCost(Integer.MAX_VALUE);
+  }
+  
+  private int scheduleCost (int bound) {
+    if (cache != null) {
+      int c = cache.get(hash, bound);
+      if (c >= 0) return c;
+    }
+    int makespan = scheduler.makespan(cg, lag, order.node, bound);
+    if (makespan < 0) makespan = 0;
+    if (cache != null) cache.put(hash, makespan, makespan <= bound); // stopped schedules only deliver a lower bound
+    return makespan;
+  }
+
+  /**
+   * @return a lower bound of the cost. If the schedule is used as cost, the resource constraints give another bound.
+   */
+  @Override
+  public int lowerBound () {
+    if (scheduler == null) return super.lowerBound();
+    return Math.max(super.lowerBound(), ResourceBound.lowerBound(cg, scheduler.constraints));
+  }
+  
+  /**
+   * Stores the current retiming as the best one.
+   */
+  private void saveBest (int C) {
+    bestC = C;
+    if (journalSize < 0) System.arraycopy(lag, 0, bestLag, 0, lag.length);
+    else for (int i = 0; i < journalSize; i++) { // replay the rotations since the last save, these are usually less than the nodes
+      if (journal[i] >= 0) bestLag[journal[i]]++;
+      else bestLag[-1-journal[i]]--;
+    }
+    journalSize = 0;
+  }
+  
+  /**
+   * Records the accepted move, so that bestLag can be updated cheaply.
+   */
+  private void logMove (boolean rotDir) {
+    if (journalSize < 0) return;
+    if (journalSize + moveSize > journal.length) {
+      journalSize = -1; // copying the whole retiming is cheaper now
+      return;
+    }
+    for (int j = 0; j < moveSize; j++) journal[journalSize++] = rotDir ? move[j] : -1-move[j];
+  }
+  
+  /**
+   * Starts a search: starts the clock, creates the cache and computes all data structures of the current retiming.
+   * @return
+   * the cost of the current retiming
+   */
+  protected int start () {
+    startClock();
+    stopReason = StopReason.FINISHED;
+    if (scheduler != null && cacheSize > 0) cache = new CostCache(cg.size(), cacheSize);
+    else cache = null;
+    int C = cost();
+    journalSize = -1;
+    saveBest(C);
+    return C;
+  }
+  
+  /**
+   * Determines the start and the final temperature from the cost changes of random moves, which are applied and reverted.
+   * The start temperature is chosen, so that the share initialAcceptance of the sampled cost increases is accepted.
+   * At the final temperature, the smallest sampled increase is accepted with probability finalAcceptance.
+   * The search must have been started. The sampling stops early, when the wall-clock budget is exhausted.
+   * If no move increased the cost, the start temperature accepts a double of the cost with 50% probability and the final temperature is 0.1.
+   * @return
+   * the start and the final temperature and the number of sampled moves
+   */
+  protected double[] calibrate (int C, int nMoves, double initialAcceptance, double finalAcceptance) {
+    double[] up = new double[nMoves];
+    int nUp = 0;
+    int i = 0;
+    for (; i < nMoves; i++) {
+      if ((i & 15) == 15 && timeUp()) break;
+      boolean dir = random.nextDouble() < 0.5;
+      if (!prepareMove(dir)) {
+        dir = !dir;
+        if (!prepareMove(dir)) break;
+      }
+      rotateMove(dir);
+      int dC = moveCost(dir, Integer.MAX_VALUE - 1) - C;
+      revertMove(dir);
+      timing.undo();
+      if (dC > 0) up[nUp++] = dC;
+    }
+    if (nUp == 0) return new double[]{C / 0.693147, 0.1, i};
+    double min = up[0];
+    for (int j = 1; j < nUp; j++) if (up[j] < min) min = up[j];
+    // the mean acceptance probability of the increases grows with T: bisect on a logarithmic scale
+    double lo = min / 1000, hi = 0;
+    for (int j = 0; j < nUp; j++) hi = Math.max(hi, up[j]);
+    hi *= 1000;
+    for (int k = 0; k < 50; k++) {
+      double T = Math.sqrt(lo * hi);
+      double a = 0;
+      for (int j = 0; j < nUp; j++) a += Math.exp(-up[j] / T);
+      if (a / nUp < initialAcceptance) lo = T;
+      else hi = T;
+    }
+    return new double[]{hi, min / Math.log(1 / finalAcceptance), i};
+  }
+
+  /**
+   * Accepts the applied move.
+   * @param dC
+   * the change of the cost by the move
+   * @return
+   * true, if the move found a new best retiming
+   */
+  protected boolean accept (boolean rotDir, int C, double dC) {
+    if (adaptive) proposals.reward(move[0], rotDir, dC < 0 ? -dC : (dC == 0 ? 0.1 : 0)); // reward improvements and (less) moves on plateaus
+    timing.commit();
+    logMove(rotDir);
+    if (C >= bestC) return false;
+    saveBest(C);
+    return true;
+  }
+  
+  /**
+   * Reverts the applied move.
+   */
+  protected void reject (boolean rotDir) {
+    if (adaptive) proposals.reward(move[0], rotDir, 0);
+    revertMove(rotDir);
+    timing.undo();
+  }
+  
+  /**
+   * Checks the stopping criteria after a move and stores the reason in stopReason.
+   * @param bound
+   * the lower bound of the cost, 0 if it should not be regarded
+   * @param nIdle
+   * the number of moves since the last improvement of the best cost
+   * @return
+   * true, if the search must stop
+   */
+  protected boolean stop (int bound, long nCycles, long nIdle) {
+    if (bestC <= bound) stopReason = StopReason.OPTIMAL;
+    else if (targetCost > 0 && bestC <= targetCost) stopReason = StopReason.TARGET;
+    else if (stagnationMoves > 0 && nIdle >= stagnationMoves) stopReason = StopReason.STAGNATION;
+    else if ((nCycles & 255) == 0 && timeUp()) stopReason = StopReason.TIME;
+    else return false;
+    return true;
+  }
+  
+  /**
+   * Restores the best retiming, if it is better than the current one with cost C. The data structures of the search
+   * are not updated, so the search must be started again afterwards.
+   */
+  protected void restoreBest (int C) {
+    if (bestC < C) System.arraycopy(bestLag, 0, lag, 0, lag.length);
+  }
+  
+  /**
+   * Restores the best retiming and writes it into the graph.
+   * @return
+   * the start cost, the best cost, the number of cycles and the cost of the final state of the annealing
+   */
+  protected int[] finish (int startC, int C, int nCycles) {
+    restoreBest(C);
+    writeBack();
+    return new int[]{startC, Math.min(bestC, C), nCycles, C};
+  }
+}
@@ -0,0 +1,141 @@
+package retiming;
+
+import java.util.ArrayList;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+
+/**
+ * Multilevel retiming: the graph is coarsened level by level by merging nodes, which are connected by zero-weight edges, into
+ * super-nodes. The coarsest graph is annealed, then its retiming is projected back level by level and refined by annealing,
+ * that starts at a low temperature. A super-node has the delay of the longest path through its members, so the longest path
+ * of a coarse graph is never shorter than the one of the finer graph under the projected retiming. The coarse levels always
+ * regard the longest path as cost, only the finest level uses the scheduler, if it is set.
+ */
+public class MLretimer extends SAretimer {
+  public int coarsestSize = 50; // the coarsening stops, when a level has no more than this number of nodes
+  public double minReduction = 0.1; // the coarsening stops, when a level would merge less than this share of the nodes
+  public int maxGroupDelay = 0; // maximum delay of a super-node. 0 for the larger one of the iteration bound and the largest delay of a node
+  public double refineAcceptance = 0.05; // share of the sampled cost increases, which is accepted at the start of the refinement of a level
+  public int levels = 0; // number of coarse levels, which were built in the last call of retime()
+
+  public MLretimer (Graph graph) {
+    super(graph);
+  }
+
+  /**
+   * Pairs nodes, which are connected by a zero-weight edge. The edge must be the only zero-weight edge leaving its source or
+   * entering its destination. So there is no other path of zero-weight edges between both nodes and the merged node cannot close
+   * a cycle of zero-weight edges. Nodes are visited in random order, each one chooses the partner with the smallest delay.
+   * @param group
+   * receives the group of each node
+   * @param delay
+   * receives the delay of each group, which is the sum of the delays of its members
+   * @return
+   * the number of groups
+   */
+  private int match (CompactGraph g, int[] group, int[] delay, int maxDelay) {
+    int n = g.size();
+    int[] nZeroIn = new int[n];
+    int[] nZeroOut = new int[n];
+    for (int e = 0; e < g.edges(); e++) {
+      if (g.weight[e] != 0) continue;
+      nZeroOut[g.src[e]]++;
+      nZeroIn[g.dst[e]]++;
+    }
+    int[] perm = new int[n];
+    for (int i = 0; i < n; i++) {
+      int j = random.nextInt(i+1);
+      perm[i] = perm[j];
+      perm[j] = i;
+      group[i] = -1;
+    }
+    int nGroups = 0;
+    for (int i = 0; i < n; i++) {
+      int u = perm[i];
+      if (group[u] >= 0) continue;
+      int partner = -1;
+      for (int e = g.succOff[u]; e < g.succOff[u+1]; e++) {
+        int v = g.dst[e];
+        if (g.weight[e] != 0 || group[v] >= 0 || (nZeroIn[v] != 1 && nZeroOut[u] != 1)) continue;
+        if (g.delay[u] + g.delay[v] > maxDelay || (partner >= 0 && g.delay[v] >= g.delay[partner])) continue;
+        partner = v;
+      }
+      for (int j = g.predOff[u]; j < g.predOff[u+1]; j++) {
+        int e = g.predEdge[j];
+        int v = g.src[e];
+        if (g.weight[e] != 0 || group[v] >= 0 || (nZeroOut[v] != 1 && nZeroIn[u] != 1)) continue;
+        if (g.delay[u] + g.delay[v] > maxDelay || (partner >= 0 && g.delay[v] >= g.delay[partner])) continue;
+        partner = v;
+      }
+      group[u] = nGroups;
+      delay[nGroups] = g.delay[u];
+      if (partner >= 0) {
+        group[partner] = nGroups;
+        delay[nGroups] += g.delay[partner];
+      }
+      nGroups++;
+    }
+    return nGroups;
+  }
+
+  /**
+   * Transfers the retiming of a coarser level to a finer one, which has not been retimed yet. The projection is dropped,
+   * if it increases globalCost() of the finer level. Only the finest level uses the scheduler, if it is set.
+   */
+  private static void project (int[] group, int[] coarseLag, SAretimer fine) {
+    int before = fine.globalCost();
+    int[] old = fine.lag.clone();
+    for (int v = 0; v < fine.lag.length; v++) fine.lag[v] = coarseLag[group[v]];
+    if (fine.globalCost() <= before) return;
+    System.arraycopy(old, 0, fine.lag, 0, old.length);
+  }
+
+  /**
+   * Coarsens the graph, anneals the coarsest level and refines the retiming on all finer levels.
+   * The time limit applies to all levels together. When it is exhausted, the remaining levels are only projected.
+   * The target cost only applies to the finest level.
+   * @return
+   * the cost before the retiming, the best and the final cost of the finest level and the number of cycles of all levels
+   */
+  @Override
+  public int[] retime (int quality) {
+    startClock();
+    // coarsen: group.get(k) maps the nodes of graph.get(k) to the nodes of graph.get(k+1)
+    int maxDelay = maxGroupDelay;
+    if (maxDelay <= 0) {
+      maxDelay = IterationBound.lowerBound(cg);
+      for (int v = 0; v < cg.size(); v++) maxDelay = Math.max(maxDelay, cg.delay[v]);
+    }
+    ArrayList<CompactGraph> graph = new ArrayList<CompactGraph>();
+    ArrayList<int[]> group = new ArrayList<int[]>();
+    graph.add(cg);
+    CompactGraph g = cg;
+    while (g.size() > coarsestSize && !timeUp()) {
+      int[] groupOf = new int[g.size()];
+      int[] delay = new int[g.size()];
+      int nGroups = match(g, groupOf, delay, maxDelay);
+      if (nGroups > (1 - minReduction) * g.size()) break;
+      g = new CompactGraph(g, new int[g.size()], groupOf, nGroups, delay);
+      graph.add(g);
+      group.add(groupOf);
+    }
+    levels = group.size();
+    // anneal the coarsest level and refine the finer ones
+    int startC = globalCost();
+    long nCycles = 0;
+    int[] coarseLag = null;
+    for (int k = levels; k > 0; k--) {
+      SAretimer level = new DetachedSAretimer(graph.get(k));
+      copySettings(level);
+      level.timeLimit = timeLeft();
+      if (k < levels) level.initialAcceptance = refineAcceptance;
+      if (coarseLag != null) project(group.get(k), coarseLag, level);
+      if (!timeUp()) nCycles += level.retime(quality)[2];
+      coarseLag = level.lag;
+    }
+    if (coarseLag != null) project(group.get(0), coarseLag, this);
+    int[] cost = refine(quality, levels > 0 ? refineAcceptance : initialAcceptance);
+    return new int[]{startC, cost[1], (int)(nCycles + cost[2]), cost[3]};
+  }
+}
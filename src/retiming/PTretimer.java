@@ -0,0 +1,236 @@
+package retiming;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+import scheduler.ListScheduler;
+
+/**
+ * Parallel tempering (replica exchange): several replicas of the retiming are annealed at the fixed temperatures of a geometric ladder,
+ * each one on a worker thread. After each round, the replicas at neighbouring temperatures exchange their temperatures with the
+ * Metropolis criterion, so good retimings wander down to the cold end of the ladder, while the hot end keeps on exploring.
+ * The replicas share the compact graph, but each one has its own search state, scheduler and cost cache.
+ * The best retiming of all replicas is written into the graph.
+ */
+public class PTretimer extends LocalSearchRetimer {
+  public int replicas = 8; // number of replicas, one per temperature of the ladder
+  public int threads = Runtime.getRuntime().availableProcessors(); // number of worker threads. 1 runs all replicas in the calling thread
+  public int rounds = 20; // number of exchange rounds per quality unit
+  public float roundLength = 1f; // number of moves per node, which each replica does between two exchange rounds
+  public float dirChangeInterval = 5f;
+  public double calibration = 1; // number of sample moves per node, which calibrate the highest and the lowest temperature. 0 uses fixed temperatures
+  public double initialAcceptance = 0.8; // share of the sampled cost increases, which is accepted at the highest temperature
+  public double finalAcceptance = 0.001; // probability to accept the smallest sampled cost increase at the lowest temperature
+  public long exchanges = 0; // number of accepted exchanges in the last call of retime()
+
+  public PTretimer (Graph graph) {
+    super(graph);
+  }
+
+  /**
+   * One chain of the parallel tempering, which does Metropolis moves at a fixed temperature.
+   */
+  private static class Replica extends LocalSearchRetimer implements Callable<Integer> {
+    double T; // current temperature, changed by the exchanges
+    int C; // current cost
+    int bound = 0; // the round stops, as soon as the best cost reaches this value
+    long nMoves = 0; // number of moves per round
+    float dirChangeInterval = 5f;
+
+    Replica (CompactGraph cg) {
+      super(cg);
+    }
+
+    /**
+     * Runs one round of nMoves moves at temperature T. stopReason is NO_MOVES afterwards, if no node could be rotated.
+     * @return
+     * the cost after the round
+     */
+    @Override
+    public Integer call () {
+      stopReason = StopReason.FINISHED; // an exchange may have brought a state, in which nodes can be rotated again
+      float nextDirChange = 0;
+      boolean dir = false;
+      for (long i = 0; i < nMoves; i++) {
+        if ((float)i / cg.size() >= nextDirChange) {
+          dir = random.nextDouble() < 0.5;
+          nextDirChange += dirChangeInterval * random.nextDouble();
+        }
+        if (!prepareMove(dir)) {
+          dir = !dir;
+          if (!prepareMove(dir)) {
+            stopReason = StopReason.NO_MOVES;
+            break;
+          }
+        }
+        rotateMove(dir);
+        double maxC = C - T * Math.log(random.nextDouble());
+        int newC = moveCost(dir, maxC >= Integer.MAX_VALUE - 1 ? Integer.MAX_VALUE - 1 : (int)maxC);
+        if (newC < maxC) {
+          double dC = newC - C;
+          C = newC;
+          accept(dir, C, dC);
+        } else reject(dir);
+        if (bestC <= bound) break;
+      }
+      return C;
+    }
+
+    /**
+     * Does quality moves per node at temperature T and writes the best retiming into the graph.
+     */
+    @Override
+    public int[] retime (int quality) {
+      C = start();
+      int startC = C;
+      nMoves = (long)quality * cg.size();
+      call();
+      return finish(startC, C, (int)nMoves);
+    }
+  }
+
+  /**
+   * Creates the replicas at the temperatures of a geometric ladder from minT to maxT. All replicas start at the current retiming.
+   * @return
+   * the replicas, ordered by their temperature
+   */
+  private Replica[] createReplicas (double minT, double maxT, int bound) {
+    Replica[] chain = new Replica[replicas];
+    for (int k = 0; k < replicas; k++) {
+      Replica r = new Replica(cg);
+      System.arraycopy(lag, 0, r.lag, 0, lag.length);
+      if (scheduler != null) {
+        r.scheduler = new ListScheduler(); // the scheduler keeps scratch arrays, so it cannot be shared between the threads
+        r.scheduler.constraints = scheduler.constraints;
+      }
+      r.criticalShare = criticalShare;
+      r.criticalCandidates = criticalCandidates;
+      r.adaptive = adaptive;
+      r.clusterSize = clusterSize;
+      r.clusterShare = clusterShare;
+      r.cacheSize = cacheSize;
+      r.random = new Random(random.nextLong());
+      r.dirChangeInterval = dirChangeInterval;
+      r.bound = bound;
+      r.T = minT * Math.pow(maxT / minT, (double)k / (replicas - 1));
+      r.nMoves = Math.max(1, (long)(roundLength * cg.size()));
+      r.C = r.start();
+      chain[k] = r;
+    }
+    return chain;
+  }
+
+  /**
+   * Runs one round of all replicas, in parallel, if there is a pool.
+   * @return
+   * false, if the thread was interrupted
+   */
+  private boolean run (ExecutorService pool, Replica[] chain) {
+    if (pool == null) {
+      for (int k = 0; k < chain.length; k++) chain[k].call();
+      return true;
+    }
+    return runAll(pool, Arrays.asList(chain));
+  }
+
+  /**
+   * Proposes exchanges between the replicas at the temperatures first and first+1, first+2 and first+3 and so on.
+   * An exchange is accepted with probability min(1, exp((1/T1 - 1/T2) * (C1 - C2))), where T1 &lt; T2 are the temperatures
+   * and C1, C2 the costs of both replicas. So a better retiming always moves to the lower temperature.
+   */
+  private void exchange (Replica[] chain, int first) {
+    for (int k = first; k+1 < chain.length; k += 2) {
+      Replica cold = chain[k], hot = chain[k+1];
+      double x = (1 / cold.T - 1 / hot.T) * (cold.C - hot.C);
+      if (x < 0 && random.nextDouble() >= Math.exp(x)) continue;
+      double T = cold.T;
+      cold.T = hot.T;
+      hot.T = T;
+      chain[k] = hot;
+      chain[k+1] = cold;
+      exchanges++;
+    }
+  }
+
+  /**
+   * Applies parallel tempering on the graph. Each replica does rounds * quality rounds of roundLength moves per node.
+   * The best retiming of all replicas is written into the graph.
+   * @return
+   * the start cost, the best cost, the number of moves of all replicas and the final cost of the coldest replica
+   */
+  @Override
+  public int[] retime (int quality) {
+    if (replicas < 2) throw new IllegalArgumentException("Parallel tempering requires at least two replicas!");
+    int C = start();
+    int startC = C;
+    int finalC = C;
+    long nCycles = 0;
+    exchanges = 0;
+    double maxT = C / 0.693147; // accept a double of cost with 50% probability
+    double minT = 0.1;
+    if (quality > 0 && calibration > 0) {
+      int nSamples = (int)Math.ceil(calibration * cg.size());
+      double[] t = calibrate(C, nSamples, initialAcceptance, finalAcceptance);
+      nCycles += (int)t[2];
+      maxT = t[0];
+      minT = t[1];
+    }
+    int bound = stopAtBound ? lowerBound() : 0;
+    Replica best = null; // replica, which found the best retiming
+    int bestRC = C;
+    if (C <= bound) stopReason = StopReason.OPTIMAL;
+    else if (targetCost > 0 && C <= targetCost) stopReason = StopReason.TARGET;
+    else if (quality > 0) {
+      Replica[] chain = createReplicas(minT, maxT, bound);
+      ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(Math.min(threads, replicas)) : null;
+      try {
+        long lastImprovement = nCycles;
+        int nStagnantRounds = 0;
+        for (int round = 0; round < rounds * quality; round++) {
+          if (!run(pool, chain)) {
+            stopReason = StopReason.TIME;
+            break;
+          }
+          int nStuck = 0;
+          for (int k = 0; k < chain.length; k++) {
+            nCycles += chain[k].nMoves;
+            if (chain[k].stopReason == StopReason.NO_MOVES) nStuck++;
+            if (chain[k].bestC >= bestRC) continue;
+            best = chain[k];
+            bestRC = best.bestC;
+            lastImprovement = nCycles;
+            nStagnantRounds = -1;
+          }
+          nStagnantRounds++;
+          exchange(chain, round & 1);
+          finalC = chain[0].C;
+          if (bestRC <= bound) stopReason = StopReason.OPTIMAL;
+          else if (targetCost > 0 && bestRC <= targetCost) stopReason = StopReason.TARGET;
+          else if (nStuck == chain.length) stopReason = StopReason.NO_MOVES;
+          else if (stagnationMoves > 0 && nCycles - lastImprovement >= stagnationMoves) stopReason = StopReason.STAGNATION;
+          else if (stagnationSteps > 0 && nStagnantRounds >= stagnationSteps) stopReason = StopReason.STAGNATION;
+          else if (timeUp()) stopReason = StopReason.TIME;
+          else continue;
+          break;
+        }
+      } finally {
+        if (pool != null) pool.shutdown();
+      }
+      if (cache != null) for (int k = 0; k < chain.length; k++) {
+        cache.hits += chain[k].cache.hits;
+        cache.misses += chain[k].cache.misses;
+      }
+    }
+    if (best != null) {
+      best.restoreBest(best.C);
+      System.arraycopy(best.lag, 0, lag, 0, lag.length);
+    }
+    writeBack();
+    return new int[]{startC, bestRC, (int)nCycles, finalC};
+  }
+}
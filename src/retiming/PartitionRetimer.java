@@ -0,0 +1,234 @@
+package retiming;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+
+/**
+ * Anneals parts of the graph concurrently. The graph is split into balanced parts with few cut edges. Each part is annealed
+ * as a subgraph of its own, while its boundary nodes (the nodes with cut edges) stay fixed, so the weights of the cut edges don't change
+ * and the retimings of the parts can be combined. Paths, which leave or enter a part over zero-weight cut edges, are passed to the
+ * part as release times and exit lengths of its boundary nodes, as they were before the parts were annealed.
+ * The retimings of the parts are combined one after the other, a part is dropped, if it makes the whole graph worse.
+ * The path weights between the fixed boundary nodes cannot change inside a part, so registers only cross the boundaries in the
+ * reconciliation, which anneals the whole graph at a low temperature (optionally only the nodes near the boundaries).
+ * Splitting, annealing and reconciliation are repeated in several passes with different parts.
+ * The parts regard the longest path as cost, the combination and the reconciliation use the scheduler, if it is set.
+ */
+public class PartitionRetimer extends SAretimer {
+  public int parts = 4; // number of parts, which are annealed concurrently
+  public int minPartSize = 50; // the number of parts is reduced, so that each part has at least this number of nodes
+  public int passes = 2; // number of passes of splitting, annealing and reconciliation
+  public double balance = 0.1; // allowed deviation of the size of a part from the mean size
+  public double refineAcceptance = 0.05; // share of the sampled cost increases, which is accepted at the start of the reconciliation
+  public int reconcileDepth = -1; // the reconciliation rotates only the nodes within this number of edges from a boundary node, -1 for all nodes
+
+  public PartitionRetimer (Graph graph) {
+    super(graph);
+  }
+
+  /**
+   * Splits the nodes into parts of nearly equal size. Each part grows from a random node in breadth-first order over the edges
+   * in both directions, so it is usually connected. Afterwards, nodes are moved to the neighbouring part, to which they have
+   * more edges than to their own one, as long as the sizes stay balanced.
+   * @return
+   * the part of each node
+   */
+  private int[] partition (int nParts) {
+    int n = cg.size();
+    int[] part = new int[n];
+    for (int v = 0; v < n; v++) part[v] = -1;
+    int[] size = new int[nParts];
+    int[] queue = new int[n];
+    int nAssigned = 0;
+    for (int p = 0; p < nParts; p++) {
+      int target = (n - nAssigned) / (nParts - p);
+      int head = 0, tail = 0;
+      while (size[p] < target) {
+        if (head == tail) { // start at a random node, also if the rest of the part is not connected
+          int s = random.nextInt(n);
+          while (part[s] >= 0) s = (s + 1) % n;
+          part[s] = p;
+          queue[tail++] = s;
+          size[p]++;
+          continue;
+        }
+        int v = queue[head++];
+        for (int e = cg.succOff[v]; e < cg.succOff[v+1] && size[p] < target; e++) {
+          if (part[cg.dst[e]] >= 0) continue;
+          part[cg.dst[e]] = p;
+          queue[tail++] = cg.dst[e];
+          size[p]++;
+        }
+        for (int i = cg.predOff[v]; i < cg.predOff[v+1] && size[p] < target; i++) {
+          int u = cg.src[cg.predEdge[i]];
+          if (part[u] >= 0) continue;
+          part[u] = p;
+          queue[tail++] = u;
+          size[p]++;
+        }
+      }
+      nAssigned += size[p];
+    }
+    // reduce the cut edges
+    int maxSize = (int)Math.ceil((1 + balance) * n / nParts);
+    int minSize = (int)Math.floor((1 - balance) * n / nParts);
+    int[] links = new int[nParts];
+    for (int v = 0; v < n; v++) {
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) links[part[cg.dst[e]]]++;
+      for (int i = cg.predOff[v]; i < cg.predOff[v+1]; i++) links[part[cg.src[cg.predEdge[i]]]]++;
+      int best = part[v];
+      for (int p = 0; p < nParts; p++) {
+        if (links[p] > links[best] && size[p] < maxSize) best = p;
+        links[p] = 0;
+      }
+      if (best == part[v] || size[part[v]] <= minSize) continue;
+      size[part[v]]--;
+      size[best]++;
+      part[v] = best;
+    }
+    return part;
+  }
+
+  /**
+   * Computes the length of the longest path after each node (including its delay) with the current retiming.
+   * The start times of the ASAP schedule are left in startTime.
+   */
+  private int[] tails () {
+    int n = cg.size();
+    longestPath();
+    int[] order = new int[n];
+    cg.topologicalOrder(lag, order);
+    int[] tail = new int[n];
+    for (int i = n-1; i >= 0; i--) {
+      int v = order[i];
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+        if (cg.weight(e, lag) == 0 && tail[cg.dst[e]] > tail[v]) tail[v] = tail[cg.dst[e]];
+      }
+      tail[v] += cg.delay[v];
+    }
+    return tail;
+  }
+
+  /**
+   * Applies the partitioned annealing. If the graph is too small for two parts, the whole graph is annealed.
+   * @return
+   * the start cost, the best cost, the number of cycles of all parts and reconciliations and the final cost of the last reconciliation
+   */
+  @Override
+  public int[] retime (int quality) {
+    int nParts = Math.min(parts, cg.size() / Math.max(1, minPartSize));
+    if (nParts < 2) return super.retime(quality);
+    int n = cg.size();
+    startClock(); // the time limit applies to all passes together
+    stopReason = StopReason.FINISHED;
+    cache = null; // created by the reconciliation
+    int startC = globalCost();
+    int C = startC;
+    int finalC = C;
+    long nCycles = 0;
+    ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(Math.min(threads, nParts)) : null;
+    try {
+      for (int pass = 0; pass < passes; pass++) {
+        if (targetCost > 0 && C <= targetCost) {
+          stopReason = StopReason.TARGET;
+          break;
+        }
+        if (timeUp()) {
+          stopReason = StopReason.TIME;
+          break;
+        }
+        int[] part = partition(nParts);
+        boolean[] boundary = new boolean[n];
+        for (int e = 0; e < cg.edges(); e++) {
+          if (part[cg.src[e]] == part[cg.dst[e]]) continue;
+          boundary[cg.src[e]] = true;
+          boundary[cg.dst[e]] = true;
+        }
+        // anneal the parts as subgraphs with fixed boundary nodes and the paths through the other parts as external paths
+        int[] tail = tails();
+        int[][] local = new int[nParts][];
+        SAretimer[] sub = new SAretimer[nParts];
+        int[][] result = new int[nParts][];
+        ArrayList<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        for (int p = 0; p < nParts; p++) {
+          local[p] = new int[n];
+          int size = 0;
+          for (int v = 0; v < n; v++) local[p][v] = part[v] == p ? size++ : -1;
+          int[] delay = new int[size];
+          boolean[] movable = new boolean[size];
+          int[] release = new int[size];
+          int[] exit = new int[size];
+          for (int v = 0; v < n; v++) {
+            int i = local[p][v];
+            if (i < 0) continue;
+            delay[i] = cg.delay[v];
+            movable[i] = !boundary[v];
+            for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+              if (part[cg.dst[e]] != p && cg.weight(e, lag) == 0) exit[i] = Math.max(exit[i], tail[cg.dst[e]]);
+            }
+            for (int j = cg.predOff[v]; j < cg.predOff[v+1]; j++) {
+              int u = cg.src[cg.predEdge[j]];
+              if (part[u] != p && cg.weight(cg.predEdge[j], lag) == 0) release[i] = Math.max(release[i], startTime[u] + cg.delay[u]);
+            }
+          }
+          sub[p] = new DetachedSAretimer(new CompactGraph(cg, lag, local[p], size, delay));
+          copySettings(sub[p]);
+          sub[p].timeLimit = timeLeft();
+          sub[p].rotatable.movable = movable;
+          sub[p].timing.setExternalPaths(release, exit);
+          final int q = p;
+          tasks.add(new Callable<int[]>() {
+            public int[] call () {
+              return result[q] = sub[q].retime(quality);
+            }
+          });
+        }
+        if (pool == null) for (int p = 0; p < nParts; p++) result[p] = sub[p].retime(quality);
+        else if (!runAll(pool, tasks)) {
+          stopReason = StopReason.TIME;
+          break;
+        }
+        // combine the parts one after the other and drop those, that make the whole graph worse
+        for (int p = 0; p < nParts; p++) {
+          nCycles += result[p][2];
+          for (int v = 0; v < n; v++) if (local[p][v] >= 0) lag[v] += sub[p].lag[local[p][v]];
+          int combinedC = globalCost();
+          if (combinedC <= C) C = combinedC;
+          else for (int v = 0; v < n; v++) if (local[p][v] >= 0) lag[v] -= sub[p].lag[local[p][v]];
+        }
+        // reconcile the boundaries
+        boolean[] region = null;
+        if (reconcileDepth >= 0) {
+          region = boundary.clone();
+          for (int d = 0; d < reconcileDepth; d++) {
+            boolean[] inner = region.clone();
+            for (int e = 0; e < cg.edges(); e++) {
+              if (inner[cg.src[e]]) region[cg.dst[e]] = true;
+              if (inner[cg.dst[e]]) region[cg.src[e]] = true;
+            }
+          }
+        }
+        rotatable.movable = region;
+        int[] cost;
+        try {
+          cost = refine(quality, refineAcceptance);
+        } finally {
+          rotatable.movable = null;
+        }
+        nCycles += cost[2];
+        C = cost[1];
+        finalC = cost[3];
+        if (stopReason != StopReason.FINISHED && stopReason != StopReason.NO_MOVES) break;
+      }
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
+    writeBack();
+    return new int[]{startC, C, (int)nCycles, finalC};
+  }
+}
@@ -0,0 +1,17 @@
+package retiming;
+
+/**
+ * Reduces the temperature by a factor, that depends on the acceptance ratio of the last step:
+ * steps, where nearly every move is accepted, are left quickly, the region of medium acceptance is passed slowly.
+ */
+public class RatioCooling extends CoolingSchedule {
+
+  @Override
+  public double next (double T) {
+    double a = acceptance();
+    if (a > 0.96) return T * 0.5;
+    if (a > 0.8) return T * 0.9;
+    if (a > 0.15) return T * 0.95;
+    return T * 0.8;
+  }
+}
@@ -0,0 +1,224 @@
+package retiming;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import scheduler.Graph;
+
+/**
+ * Minimum-register retiming of Leiserson and Saxe: among all retimings, which reach the given period, the one with the lowest
+ * number of registers (sum of all edge weights) is chosen. The number of registers is a constant plus the sum of
+ * lag[v] * (number of incoming edges - number of outgoing edges), so a linear program with difference constraints is solved:
+ * lag[u] - lag[v] &lt;= weight(e) for each edge e from u to v, so that no weight becomes negative, and
+ * lag[u] - lag[v] &lt;= W(u,v) - 1 for each pair of nodes, whose path with the lowest weight W(u,v) has a delay D(u,v) above the period.
+ * The dual of this program is a minimum-cost flow problem, which is solved by successive shortest paths. The potentials of the
+ * optimal flow are the lags.
+ * W and D are computed from each node by a search in the order of the path weight, within each weight in topological order
+ * of the zero-weight edges. The search doesn't continue behind nodes, which already exceed the period, because the constraints
+ * of such paths follow from the constraint of the exceeding node and the edge constraints.
+ */
+public class RegisterRetimer extends Retimer {
+  public int period = 0; // period to be reached, 0 for the lowest possible period
+  // constraint arcs of the flow problem: lag[from] - lag[to] <= cost
+  private int nArcs = 0;
+  private int[] from = new int[64], to = new int[64], cost = new int[64];
+  
+  public RegisterRetimer (Graph graph) {
+    super(graph);
+  }
+  
+  private void addArc (int u, int v, int c) {
+    if (nArcs == from.length) {
+      from = Arrays.copyOf(from, nArcs * 2);
+      to = Arrays.copyOf(to, nArcs * 2);
+      cost = Arrays.copyOf(cost, nArcs * 2);
+    }
+    from[nArcs] = u;
+    to[nArcs] = v;
+    cost[nArcs++] = c;
+  }
+  
+  /**
+   * Adds the period constraints of all paths starting at u.
+   */
+  private void addPeriodConstraints (int u, int c, int[] ord, int[] W, int[] D, boolean[] done, PriorityQueue<long[]> levels) {
+    int n = cg.size();
+    Arrays.fill(W, Integer.MAX_VALUE);
+    Arrays.fill(D, 0);
+    Arrays.fill(done, false);
+    levels.clear();
+    W[u] = 0;
+    D[u] = cg.delay[u];
+    levels.add(new long[]{0, ord[u], u});
+    while (!levels.isEmpty()) {
+      long[] top = levels.poll(); // lowest weight first, within the same weight in topological order
+      int v = (int)top[2];
+      if (done[v] || top[0] != W[v]) continue;
+      done[v] = true;
+      if (D[v] > c && v != u) {
+        addArc(u, v, W[v] - 1);
+        continue; // the constraints behind v follow from this one
+      }
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+        int s = cg.dst[e];
+        if (done[s]) continue;
+        int w = W[v] + cg.weight[e];
+        int d = D[v] + cg.delay[s];
+        if (w > W[s]) continue;
+        if (w == W[s] && d <= D[s]) continue;
+        if (w < W[s]) levels.add(new long[]{w, ord[s], s});
+        W[s] = w;
+        D[s] = d;
+      }
+    }
+  }
+  
+  /**
+   * Solves the minimum-cost flow problem of the arcs with supply -b[v] at each node (b is the demand) and stores the
+   * negative potentials in lag.
+   * @return
+   * the number of augmentations
+   */
+  private int minCostFlow (int[] b) {
+    int n = cg.size();
+    // residual graph: arc 2i is constraint arc i with unlimited capacity, arc 2i+1 is its reverse with capacity flow[i]
+    int[] off = new int[n+1];
+    for (int i = 0; i < nArcs; i++) {
+      off[from[i]+1]++;
+      off[to[i]+1]++;
+    }
+    for (int v = 0; v < n; v++) off[v+1] += off[v];
+    int[] adj = new int[2 * nArcs];
+    int[] fill = Arrays.copyOf(off, n);
+    for (int i = 0; i < nArcs; i++) {
+      adj[fill[from[i]]++] = 2*i;
+      adj[fill[to[i]]++] = 2*i+1;
+    }
+    long[] flow = new long[nArcs];
+    long[] excess = new long[n];
+    for (int v = 0; v < n; v++) excess[v] = -b[v];
+    // initial potentials with Bellman-Ford, the costs can be negative
+    long[] pi = new long[n];
+    for (int round = 0; ; round++) {
+      boolean changed = false;
+      for (int i = 0; i < nArcs; i++) {
+        if (pi[from[i]] + cost[i] >= pi[to[i]]) continue;
+        pi[to[i]] = pi[from[i]] + cost[i];
+        changed = true;
+      }
+      if (!changed) break;
+      if (round >= n) throw new IllegalArgumentException("The period " + period + " cannot be reached!");
+    }
+    long[] dist = new long[n];
+    int[] pred = new int[n]; // residual arc, on which each node was reached
+    PriorityQueue<long[]> queue = new PriorityQueue<long[]>(n, (x, y) -> Long.compare(x[0], y[0]));
+    int nAugment = 0;
+    while (true) {
+      // shortest paths with reduced costs from all nodes with excess
+      Arrays.fill(dist, Long.MAX_VALUE);
+      queue.clear();
+      for (int v = 0; v < n; v++) if (excess[v] > 0) {
+        dist[v] = 0;
+        pred[v] = -1;
+        queue.add(new long[]{0, v});
+      }
+      if (queue.isEmpty()) break;
+      int sink = -1;
+      while (!queue.isEmpty()) {
+        long[] top = queue.poll();
+        int v = (int)top[1];
+        if (top[0] != dist[v]) continue;
+        if (excess[v] < 0) { // nearest node with demand
+          sink = v;
+          break;
+        }
+        for (int j = off[v]; j < off[v+1]; j++) {
+          int a = adj[j], i = a / 2;
+          int w;
+          long c;
+          if (a % 2 == 0) {
+            w = to[i];
+            c = cost[i] + pi[v] - pi[w];
+          } else {
+            if (flow[i] == 0) continue;
+            w = from[i];
+            c = -cost[i] + pi[v] - pi[w];
+          }
+          if (dist[v] + c >= dist[w]) continue;
+          dist[w] = dist[v] + c;
+          pred[w] = a;
+          queue.add(new long[]{dist[w], w});
+        }
+      }
+      if (sink < 0) throw new IllegalArgumentException("The registers cannot be balanced!"); // cannot happen: each edge is an arc
+      // update potentials, nodes behind the sink are treated as if they had the distance of the sink
+      for (int v = 0; v < n; v++) pi[v] += Math.min(dist[v], dist[sink]);
+      // augment along the path
+      long d = -excess[sink];
+      int source = sink;
+      while (pred[source] >= 0) {
+        int a = pred[source], i = a / 2;
+        if (a % 2 == 1) d = Math.min(d, flow[i]);
+        source = a % 2 == 0 ? from[i] : to[i];
+      }
+      d = Math.min(d, excess[source]);
+      for (int v = sink; v != source; ) {
+        int a = pred[v], i = a / 2;
+        if (a % 2 == 0) {
+          flow[i] += d;
+          v = from[i];
+        } else {
+          flow[i] -= d;
+          v = to[i];
+        }
+      }
+      excess[source] -= d;
+      excess[sink] += d;
+      nAugment++;
+    }
+    // the reduced costs of all residual arcs are not negative, so -pi fulfills all constraints
+    long min = Long.MAX_VALUE;
+    for (int v = 0; v < n; v++) min = Math.min(min, -pi[v]);
+    for (int v = 0; v < n; v++) lag[v] = (int)(-pi[v] - min);
+    return nAugment;
+  }
+  
+  /**
+   * Computes the retiming with the lowest number of registers, which reaches the period.
+   * @param quality
+   * is not used, the result is always optimal
+   * @return
+   * the start and the end cost (longest path), the number of augmentations of the flow and the end cost again.
+   * The number of registers can be queried with registers().
+   */
+  @Override
+  public int[] retime (int quality) {
+    startClock();
+    int startC = longestPath();
+    int c = period > 0 ? period : new LSretimer(graph).minPeriod();
+    int n = cg.size();
+    // the topological order of the zero-weight edges orders the search within one weight
+    int[] order = new int[n];
+    if (cg.topologicalOrder(lag, order) < n) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+    int[] ord = new int[n];
+    for (int i = 0; i < n; i++) ord[order[i]] = i;
+    // collect constraints
+    nArcs = 0;
+    for (int e = 0; e < cg.edges(); e++) addArc(cg.src[e], cg.dst[e], cg.weight[e]);
+    int[] W = new int[n], D = new int[n];
+    boolean[] done = new boolean[n];
+    PriorityQueue<long[]> levels = new PriorityQueue<long[]>(n, (x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+    for (int u = 0; u < n; u++) addPeriodConstraints(u, c, ord, W, D, done, levels);
+    // demand of each node: the coefficient of its lag in the number of registers
+    int[] b = new int[n];
+    for (int e = 0; e < cg.edges(); e++) {
+      b[cg.dst[e]]++;
+      b[cg.src[e]]--;
+    }
+    int nCycles = minCostFlow(b);
+    int C = longestPath();
+    stopReason = C <= lowerBound() ? StopReason.OPTIMAL : StopReason.FINISHED;
+    writeBack();
+    return new int[]{startC, C, nCycles, C};
+  }
+}
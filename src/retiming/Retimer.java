@@ -1,68 +1,153 @@
 package retiming;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import scheduler.CompactGraph;
 import scheduler.Graph;
-import scheduler.Node;
 
 /**
  * This class contains basic operations required for retiming of nodes in a graph.
+ * The retimers work on a compact copy of the graph and a retiming vector (lag), which holds the number of rotations of each node.
+ * The edge weights of the graph stay untouched until the result is written into the graph by writeBack().
  * @author Mitja Stachowiak, Ludwig Meysel
  */
 public abstract class Retimer {
   protected final Graph graph;
-  private final ArrayList<Node> topologicalSort;
-  private static class TopologicalComparator implements Comparator<Node> {
-    @Override
-    public int compare(Node o1, Node o2) { return o1.getDepth() - o2.getDepth(); }
-  }
-  private final TopologicalComparator topologicalComp = new TopologicalComparator();
+  protected final CompactGraph cg;
+  protected final int[] lag; // retiming vector: the weight of edge e is cg.weight(e, lag)
+  private final int[] topologicalSort;
+  protected final int[] startTime; // start time of each node in the ASAP schedule of the last call of longestPath()
+  // stopping criteria, which can be combined. The first one, which is met, ends the retiming
+  public long timeLimit = 0; // wall-clock budget of retime() in milliseconds, 0 for no limit
+  public int targetCost = 0; // retime() stops, as soon as the cost is not higher than this value, 0 for no target
+  public long stagnationMoves = 0; // retime() stops after this number of moves without improvement of the best cost, 0 for no limit
+  public int stagnationSteps = 0; // retime() stops after this number of temperature steps without improvement, 0 for no limit
+  public boolean stopAtBound = true; // retime() stops, as soon as the cost reaches lowerBound()
+  public StopReason stopReason = null; // criterion, which ended the last call of retime()
+  private long deadline;
+  private int lowerBound = -1;
   
   public Retimer (Graph graph) {
-    this.graph = graph;
-    this.topologicalSort = new ArrayList<Node>(graph.size());
-    Iterator<Node> it = graph.iterator();
-    while (it.hasNext()) topologicalSort.add(it.next());
+    this(graph.compact());
+  }
+  
+  /**
+   * Creates a retimer, which shares the compact graph with other retimers. The compact graph is never changed.
+   */
+  protected Retimer (CompactGraph cg) {
+    this.graph = cg.graph;
+    this.cg = cg;
+    this.lag = new int[cg.size()];
+    this.topologicalSort = new int[cg.size()];
+    this.startTime = new int[cg.size()];
   }
   
   /**
    * @return the longest path (delayed) in the graph. This will be the duration of a ASAP or ALAP-schedule
    */
   protected int longestPath () {
-    topologicalSort.sort(topologicalComp);
-    // set tmp1 to 0
-    if (graph.tmp1Used) throw new IllegalArgumentException("An other function is using tmp1 in this graph!");
-    else graph.tmp1Used = true;
-    for (int i = 0; i < topologicalSort.size(); i++) topologicalSort.get(i).tmp1 = 0;
-    // set start times in paths
-    for (int i = 0; i < topologicalSort.size(); i++) {
-      int nextStartTime = topologicalSort.get(i).tmp1 + topologicalSort.get(i).getDelay();
-      HashMap<Node, Integer> succ = topologicalSort.get(i).allSuccessors();
-      Iterator<Entry<Node, Integer>> it = succ.entrySet().iterator();
-      while (it.hasNext()) {
-        Entry<Node, Integer> e = it.next();
-        if (e.getValue() != 0) continue; // don't regard edges to later iterations
-        if (nextStartTime > e.getKey().tmp1) e.getKey().tmp1 = nextStartTime;
-      }
-    }
-    // add last node's delay to paths and store maximum
+    return longestPath(Integer.MAX_VALUE);
+  }
+  
+  /**
+   * Computes the longest path like longestPath(), but stops as soon as a path longer than bound is found.
+   * @return
+   * the longest path, if it does not exceed bound, otherwise the length of a path, that exceeds bound
+   */
+  protected int longestPath (int bound) {
+    int n = cg.topologicalOrder(lag, topologicalSort);
+    if (n < cg.size()) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+    // set start times to 0
+    for (int v = 0; v < n; v++) startTime[v] = 0;
+    // set start times in paths and store maximum end time
     int longestPath = 0;
-    for (int i = 0; i < topologicalSort.size(); i++) {
-      topologicalSort.get(i).tmp1 += topologicalSort.get(i).getDelay();
-      if (topologicalSort.get(i).tmp1 > longestPath) longestPath = topologicalSort.get(i).tmp1;
+    for (int i = 0; i < n; i++) {
+      int v = topologicalSort[i];
+      int nextStartTime = startTime[v] + cg.delay[v];
+      if (nextStartTime > longestPath) longestPath = nextStartTime;
+      if (longestPath > bound) return longestPath; // start times are final in topological order, so the result can only grow
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+        if (cg.weight(e, lag) != 0) continue; // don't regard edges to later iterations
+        if (nextStartTime > startTime[cg.dst[e]]) startTime[cg.dst[e]] = nextStartTime;
+      }
     }
-    graph.tmp1Used = false;
     return longestPath;
   }
   
+  /**
+   * @return a lower bound of the cost, that no retiming can undercut: the iteration bound rounded up or the largest delay
+   */
+  public int lowerBound () {
+    if (lowerBound < 0) lowerBound = IterationBound.lowerBound(cg);
+    return lowerBound;
+  }
+  
+  /**
+   * @return the number of registers: the sum of all edge weights after retiming
+   */
+  public int registers () {
+    int sum = 0;
+    for (int e = 0; e < cg.edges(); e++) sum += cg.weight(e, lag);
+    return sum;
+  }
+  
+  /**
+   * Starts the wall-clock budget. Must be called at the begin of retime().
+   */
+  protected void startClock () {
+    deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+  }
+  
+  /**
+   * @return true, if the wall-clock budget is exhausted
+   */
+  protected boolean timeUp () {
+    return deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline;
+  }
+  
+  /**
+   * @return the milliseconds, which are left of the wall-clock budget (at least 1), 0 if there is no limit.
+   * This is the time limit for retimers, which work on behalf of this one
+   */
+  protected long timeLeft () {
+    if (deadline == Long.MAX_VALUE) return 0;
+    return Math.max(1, deadline - System.currentTimeMillis());
+  }
+  
+  /**
+   * Runs the tasks on the pool and waits for all of them. An exception of a task is thrown again in the calling thread.
+   * @return
+   * false, if the calling thread was interrupted
+   */
+  protected static <T> boolean runAll (ExecutorService pool, List<? extends Callable<T>> tasks) {
+    try {
+      for (Future<T> f : pool.invokeAll(tasks)) f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+    return true;
+  }
+  
+  /**
+   * Transfers the current retiming into the edge weights of the graph.
+   */
+  protected void writeBack () {
+    cg.writeBack(lag);
+  }
+  
   /**
    * Processes a retiming on the graph, that was given to this retimer in the constructor
    * @return
-   * returns an array of three integers, holding the start and the end cost and the number of needed cycles.
+   * returns an array of four integers, holding the start cost, the cost of the result, the number of needed cycles
+   * and the cost of the last visited retiming, which can be worse than the result. The criterion, which ended the retiming, is stored in stopReason.
    */
   public abstract int[] retime (int quality);
 }
@@ -0,0 +1,134 @@
+package retiming;
+
+import scheduler.CompactGraph;
+
+/**
+ * Maintains the sets of nodes, that can be rotated into future (all outgoing edges have a weight &gt; 0) or into past
+ * (all incoming edges have a weight &gt; 0). For each node, the number of incoming and outgoing edges with weight 0 is counted.
+ * After a rotation, only the counters of the rotated node and its neighbours are updated.
+ * Both sets support adding, removing and uniform random sampling in constant time.
+ */
+public class RotatableNodes {
+  private final CompactGraph cg;
+  private final int[] lag; // the retiming vector, which is shared with the retimer
+  private final int[] nZeroIn; // number of incoming edges with weight 0 of each node
+  private final int[] nZeroOut; // number of outgoing edges with weight 0 of each node
+  private final int[][] members = new int[2][]; // members of the set of backward (index 0) and forward (index 1) rotatable nodes
+  private final int[][] pos = new int[2][]; // position of each node in members, -1 if the node is not in the set
+  private final int[] size = new int[2];
+  public boolean[] movable = null; // if set, only these nodes are added to the sets. Changes take effect with init()
+
+  public RotatableNodes (CompactGraph cg, int[] lag) {
+    this.cg = cg;
+    this.lag = lag;
+    nZeroIn = new int[cg.size()];
+    nZeroOut = new int[cg.size()];
+    for (int s = 0; s < 2; s++) {
+      members[s] = new int[cg.size()];
+      pos[s] = new int[cg.size()];
+    }
+  }
+
+  /**
+   * Computes both sets from scratch.
+   */
+  public void init () {
+    for (int v = 0; v < cg.size(); v++) {
+      nZeroIn[v] = 0;
+      nZeroOut[v] = 0;
+      pos[0][v] = -1;
+      pos[1][v] = -1;
+    }
+    size[0] = 0;
+    size[1] = 0;
+    for (int e = 0; e < cg.edges(); e++) {
+      if (cg.weight(e, lag) != 0) continue;
+      nZeroOut[cg.src[e]]++;
+      nZeroIn[cg.dst[e]]++;
+    }
+    for (int v = 0; v < cg.size(); v++) refresh(v);
+  }
+
+  private void add (int s, int v) {
+    if (pos[s][v] >= 0) return;
+    pos[s][v] = size[s];
+    members[s][size[s]++] = v;
+  }
+
+  private void remove (int s, int v) {
+    int i = pos[s][v];
+    if (i < 0) return;
+    int last = members[s][--size[s]];
+    members[s][i] = last;
+    pos[s][last] = i;
+    pos[s][v] = -1;
+  }
+
+  private void refresh (int v) {
+    boolean fixed = movable != null && !movable[v];
+    if (nZeroOut[v] == 0 && !fixed) add(1, v);
+    else remove(1, v);
+    if (nZeroIn[v] == 0 && !fixed) add(0, v);
+    else remove(0, v);
+  }
+
+  /**
+   * Updates the sets after node n was rotated.
+   * @param n
+   * the rotated node
+   * @param d
+   * the change of lag[n]: all incoming edges of n were changed by +d, all outgoing edges by -d
+   */
+  public void update (int n, int d) {
+    for (int e = cg.succOff[n]; e < cg.succOff[n+1]; e++) {
+      int s = cg.dst[e];
+      if (s == n) continue; // the weight of edges pointing to their own source node doesn't change
+      int w = cg.weight(e, lag);
+      if ((w == 0) == (w + d == 0)) continue; // zero-state of edge not changed
+      int c = w == 0 ? 1 : -1;
+      nZeroOut[n] += c;
+      nZeroIn[s] += c;
+      refresh(s);
+    }
+    for (int i = cg.predOff[n]; i < cg.predOff[n+1]; i++) {
+      int e = cg.predEdge[i];
+      int p = cg.src[e];
+      if (p == n) continue;
+      int w = cg.weight(e, lag);
+      if ((w == 0) == (w - d == 0)) continue; // zero-state of edge not changed
+      int c = w == 0 ? 1 : -1;
+      nZeroIn[n] += c;
+      nZeroOut[p] += c;
+      refresh(p);
+    }
+    refresh(n);
+  }
+
+  /**
+   * @param rotDir
+   * true for the nodes, that can be rotated into future, false for the nodes, that can be rotated into past
+   * @return the number of nodes, that can be rotated in the given direction
+   */
+  public int size (boolean rotDir) {
+    return size[rotDir ? 1 : 0];
+  }
+
+  /**
+   * @return true, if node v can be rotated in the given direction
+   */
+  public boolean contains (boolean rotDir, int v) {
+    return pos[rotDir ? 1 : 0][v] >= 0;
+  }
+
+  /**
+   * Returns a uniformly chosen node, which can be rotated in the given direction.
+   * @param random
+   * a random number in [0, 1)
+   * @return the index of the node, -1 if no node can be rotated in the given direction
+   */
+  public int sample (boolean rotDir, double random) {
+    int s = rotDir ? 1 : 0;
+    if (size[s] == 0) return -1;
+    return members[s][(int)(random * size[s])];
+  }
+}
@@ -1,182 +1,322 @@
 package retiming;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import scheduler.CompactGraph;
 import scheduler.Graph;
-import scheduler.Node;
-import scheduler.Schedule;
-import scheduler.Scheduler;
+import scheduler.ListScheduler;
 
 
 /**
  * This class extends the basic retimer to enable a simulated annealing approach for finding good retimings.
  * @author Mitja Stachowiak, Ludwig Meysel
  */
-public class SAretimer extends Retimer {
-  private final ArrayList<Node> randomSort;
-  private int randomRepeats = 0; // increased whenever one randomSort is completely processed
-  private int randomPos = 0;
+public class SAretimer extends LocalSearchRetimer {
   public float dirChangeInterval = 5f;
-  public Scheduler scheduler = null; // if this value is set, the real length of the schedule is used as the cost-function
+  public double calibration = 1; // number of sample moves per node, which calibrate the start and final temperature. 0 uses fixed temperatures
+  public double initialAcceptance = 0.8; // share of the sampled cost increases, which is accepted at the start temperature
+  public double finalAcceptance = 0.001; // probability to accept the smallest sampled cost increase at the final temperature
+  public CoolingSchedule cooling = new RatioCooling(); // decides about the length of the temperature steps and the reduction of the temperature
+  public int speculation = 0; // maximum number of moves, which are proposed at once and evaluated in parallel. 0 evaluates one move after the other
+  public int threads = Runtime.getRuntime().availableProcessors(); // number of worker threads for the speculative evaluation
+  // state of the speculative evaluation
+  private long chainSeed; // each move draws its random numbers from a generator, that is seeded with chainSeed and the number of the move
+  private Proposal[] batch;
+  private int batchSize = 0;
+  private int batchLimit = 1; // size of the next batch. It doubles after a batch without a change of the state and drops to 1 after a change
+  private SAretimer[] workers; // copies of the retiming, on which the moves are evaluated
+  private ExecutorService pool = null;
+  private List<Callable<Void>> tasks;
+  
+  /**
+   * A move of the speculative evaluation and the direction state of the annealing after it was drawn.
+   */
+  private static class Proposal {
+    int[] nodes = new int[1];
+    int size;
+    boolean dir;
+    float nextDirChange;
+    double maxC; // the move is accepted, if its cost is less than this value
+    int cost;
+  }
   
   public SAretimer (Graph graph) {
     super(graph);
-    randomSort = new ArrayList<Node>(graph.size());
-    Iterator<Node> it = graph.iterator();
-    while (it.hasNext()) randomSort.add(it.next());
+  }
+  
+  protected SAretimer (CompactGraph cg) {
+    super(cg);
   }
   
   /**
-   * randomly mixes the array randomSort
+   * Copies the settings of the moves, the temperatures and the stagnation criteria to another annealer.
+   * The other annealer gets its own cooling schedule and a random generator, which is seeded from this one.
    */
-  private void mix () {
-    for (int i = randomSort.size(); i >= 2; i--) {
-      int r = (int)(Math.random() * i);
-      Node n = randomSort.get(i-1);
-      randomSort.set(i-1, randomSort.get(r));
-      randomSort.set(r, n);
-    }
+  protected void copySettings (SAretimer to) {
+    to.criticalShare = criticalShare;
+    to.criticalCandidates = criticalCandidates;
+    to.adaptive = adaptive;
+    to.clusterSize = clusterSize;
+    to.clusterShare = clusterShare;
+    to.random = new Random(random.nextLong());
+    to.dirChangeInterval = dirChangeInterval;
+    to.calibration = calibration;
+    to.initialAcceptance = initialAcceptance;
+    to.finalAcceptance = finalAcceptance;
+    to.cooling = cooling.copy();
+    to.stagnationMoves = stagnationMoves;
+    to.stagnationSteps = stagnationSteps;
   }
   
   /**
-   * Returns a randomly chosen node, which can be rotated in desired direction
-   * @param rotDir
-   * true, if node should be forward-rotated (into future), false otherwise
-   * @return
-   * the node, which can be rotated, null if no node can be rotated in given direction
+   * Creates the workers of the speculative evaluation. Each worker holds a copy of the current retiming.
    */
-  private Node findRotatableNode (boolean rotDir) {
-    nodeIterator: for (int j = 0; j < randomSort.size(); j++) {
-      randomPos++;
-      if (randomPos >= randomSort.size()) {
-        randomPos = 0;
-        randomRepeats++;
-        mix();
-      }
-      Node n = randomSort.get(randomPos);
-      if (rotDir) {
-        // check if node can be rotated into future
-        Iterator<Integer> it = n.allSuccessors().values().iterator();
-        while (it.hasNext()) if (it.next() < 1) continue nodeIterator; // node cannot be rotated into future
-        return n;
-      } else {
-        // check if node can be rotated into past
-        Iterator<Integer> it = n.allPredecessors().values().iterator();
-        while (it.hasNext()) if (it.next() < 1) continue nodeIterator; // node cannot be rotated into past
-        return n;
+  private void startSpeculation () {
+    chainSeed = random.nextLong();
+    batchLimit = 1;
+    batch = new Proposal[speculation];
+    for (int k = 0; k < speculation; k++) batch[k] = new Proposal();
+    workers = new SAretimer[Math.max(1, Math.min(threads, speculation))];
+    tasks = new ArrayList<Callable<Void>>();
+    for (int w = 0; w < workers.length; w++) {
+      SAretimer worker = new SAretimer(cg);
+      System.arraycopy(lag, 0, worker.lag, 0, lag.length);
+      if (scheduler != null) {
+        worker.scheduler = new ListScheduler(); // the scheduler keeps scratch arrays, so it cannot be shared between the threads
+        worker.scheduler.constraints = scheduler.constraints;
       }
+      worker.cacheSize = cacheSize;
+      worker.start();
+      workers[w] = worker;
+      final int first = w;
+      tasks.add(new Callable<Void>() {
+        public Void call () {
+          evaluateBatch(first);
+          return null;
+        }
+      });
     }
-    return null;
+    if (workers.length > 1) pool = Executors.newFixedThreadPool(workers.length);
+  }
+  
+  private void stopSpeculation () {
+    if (pool != null) pool.shutdown();
+    pool = null;
+    if (cache != null) for (int w = 0; w < workers.length; w++) {
+      cache.hits += workers[w].cache.hits;
+      cache.misses += workers[w].cache.misses;
+    }
+    workers = null;
+    tasks = null;
   }
   
   /**
-   * Applies a rotation on a given node.
-   * @param n
-   * the node to be rotated
-   * @param rotDir
-   * the direction of rotation (if true, node is rotated into future, if false into past)
+   * @return the seed of the random numbers of move m
    */
-  private void rotateNode (Node n, boolean rotDir) {
-    if (rotDir) {
-      // increment weight of all incoming edges
-      HashMap<Node, Integer> in = n.allPredecessors();
-      Iterator<Entry<Node, Integer>> eit = in.entrySet().iterator();
-      while (eit.hasNext()) {
-        Entry<Node, Integer> e = eit.next();
-        n.prepend(e.getKey(), e.getValue() + 1);
-      }
-      // decrement weight of all outgoing edges
-      HashMap<Node, Integer> out = n.allSuccessors();
-      eit = out.entrySet().iterator();
-      while (eit.hasNext()) {
-        Entry<Node, Integer> e = eit.next();
-        n.append(e.getKey(), e.getValue() - 1);
-      }
-    } else {
-      // increment weight of all outgoing edges
-      HashMap<Node, Integer> out = n.allSuccessors();
-      Iterator<Entry<Node, Integer>> eit = out.entrySet().iterator();
-      while (eit.hasNext()) {
-        Entry<Node, Integer> e = eit.next();
-        n.append(e.getKey(), e.getValue() + 1);
+  private long moveSeed (long m) {
+    long z = chainSeed + m * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  /**
+   * Draws the next moves against the current retiming, as if all of them were rejected. Move nCycles+k draws its random
+   * numbers from its own seed, so it is the same move, no matter in which batch it is drawn.
+   * @return
+   * the number of proposed moves. It is less than batchLimit, if no node can be rotated.
+   */
+  private int propose (double C, double T, long nCycles, int nChanges, boolean dir, float nextDirChange) {
+    for (int k = 0; k < batchLimit; k++) {
+      random.setSeed(moveSeed(nCycles + k));
+      if ((float)(nChanges + k + 1) / cg.size() >= nextDirChange) {
+        if (random.nextDouble() > 0.5) dir = true;
+        else dir = false;
+        nextDirChange += dirChangeInterval * random.nextDouble();
       }
-      // decrement weight of all incoming edges
-      HashMap<Node, Integer> in = n.allPredecessors();
-      eit = in.entrySet().iterator();
-      while (eit.hasNext()) {
-        Entry<Node, Integer> e = eit.next();
-        n.prepend(e.getKey(), e.getValue() - 1);
+      if (!prepareMove(dir)) {
+        dir = !dir;
+        if (!prepareMove(dir)) return k;
       }
+      Proposal p = batch[k];
+      if (p.nodes.length < moveSize) p.nodes = new int[move.length];
+      System.arraycopy(move, 0, p.nodes, 0, moveSize);
+      p.size = moveSize;
+      p.dir = dir;
+      p.nextDirChange = nextDirChange;
+      p.maxC = C - T * Math.log(random.nextDouble());
     }
-    /*
-     * There is no need to add an exception for edges pointing to their own source node.
-     * The weight of such edges simply gets increased and then decreased again.
-     */
+    return batchLimit;
   }
   
-  private int cost () {
-    if (scheduler == null) return longestPath();
-    else {
-      Schedule schedule = scheduler.schedule(graph);
-      if (schedule == null) return 0;
-      return schedule.max();
+  /**
+   * Evaluates the proposals first, first + workers.length, ... on worker first.
+   */
+  private void evaluateBatch (int first) {
+    SAretimer worker = workers[first];
+    for (int k = first; k < batchSize; k += workers.length) {
+      Proposal p = batch[k];
+      p.cost = worker.evaluate(p.nodes, p.size, p.dir, p.maxC >= Integer.MAX_VALUE - 1 ? Integer.MAX_VALUE - 1 : (int)p.maxC);
     }
   }
-
+  
   /**
    * Applies simulated annealing on the graph to minimize the longest path.
+   * The best retiming, which was visited, is restored at the end.
+   * If speculation is set, each move draws its random numbers from its own seed. Then the result only depends on the seed
+   * of random, but not on the number of threads and the size of the batches.
    */
   @Override
   public int[] retime(int quality) {
-    int C = cost();
+    return anneal(quality);
+  }
+  
+  /**
+   * @return the cost of the current retiming of the whole graph: the makespan, if the scheduler is set, otherwise the longest path
+   */
+  protected int globalCost () {
+    if (scheduler != null) return scheduler.makespan(cg, lag);
+    return longestPath();
+  }
+  
+  /**
+   * Anneals the current retiming, starting at a low temperature. Subclasses use it after they built a retiming from the retimings
+   * of parts or coarser graphs. The annealing only gets the time, which is left of the wall-clock budget, that the caller started.
+   * @param acceptance
+   * share of the sampled cost increases, which is accepted at the start temperature
+   * @return
+   * the costs and the number of cycles like retime()
+   */
+  protected int[] refine (int quality, double acceptance) {
+    double initial = initialAcceptance;
+    long limit = timeLimit;
+    initialAcceptance = acceptance;
+    timeLimit = timeLeft();
+    try {
+      return anneal(quality);
+    } finally {
+      initialAcceptance = initial;
+      timeLimit = limit;
+    }
+  }
+  
+  /**
+   * The simulated annealing of retime(). Subclasses replace retime(), but refine() always runs this one.
+   */
+  private int[] anneal (int quality) {
+    int C = start();
     int nCycles = 0;
     int startC = C;
+    int nStagnantSteps = 0;
     double T = C / 0.693147; // Init Temp: Accept a double of cost with 50% probability
-    if (quality > 0) while (T > 0.1) {
-      int nAccepted = 0;
-      randomPos = randomSort.size(); // start with value > size, so that the randomRepeats is increased and mix() is called in first call of findRotatableNode
-      randomRepeats = -1;
-      float nextDirChange = 0;
-      boolean dir = false;
-      int nChanges = 0;
-      while (randomRepeats < quality) {
-        nChanges++;
-        nCycles++;
-        // check for dir change
-        if (randomRepeats + randomPos/randomSort.size() >= nextDirChange) {
-          if (Math.random() > 0.5) dir = true;
-          else dir = false;
-          nextDirChange += dirChangeInterval * Math.random();
-        }
-        // apply one rotation
-        Node n = findRotatableNode(dir);
-        if (n == null) {
-          dir = !dir;
-          n = findRotatableNode(dir);
-          if (n == null) return new int[]{startC, C, nCycles}; // no rotations were possible!
+    double finalT = 0.1;
+    if (quality > 0 && calibration > 0) {
+      int nSamples = (int)Math.ceil(calibration * cg.size());
+      double[] t = calibrate(C, nSamples, initialAcceptance, finalAcceptance);
+      nCycles += (int)t[2];
+      T = t[0];
+      finalT = t[1];
+    }
+    long lastImprovement = nCycles; // cycle, in which the best cost was improved last
+    cooling.init(cg.size(), quality); // quality is the maximum number of moves per node and temperature
+    int bound = stopAtBound ? lowerBound() : 0;
+    if (speculation > 0 && quality > 0) startSpeculation();
+    try {
+      if (C <= bound) stopReason = StopReason.OPTIMAL;
+      else if (targetCost > 0 && C <= targetCost) stopReason = StopReason.TARGET;
+      else if (quality > 0) annealing: while (T > finalT) {
+        int stepBestC = bestC;
+        float nextDirChange = 0;
+        boolean dir = false;
+        int nChanges = 0;
+        cooling.startStep();
+        while (!cooling.stepDone()) {
+          if (speculation > 0) {
+            // evaluate a batch of moves in parallel and process them in sequence up to the first one, which changes the state
+            batchSize = propose(C, T, nCycles, nChanges, dir, nextDirChange);
+            if (batchSize == 0) {
+              stopReason = StopReason.NO_MOVES;
+              break annealing;
+            }
+            int nBusy = Math.min(workers.length, batchSize); // workers, which get at least one proposal
+            if (pool == null || nBusy == 1) evaluateBatch(0);
+            else if (!runAll(pool, tasks.subList(0, nBusy))) {
+              stopReason = StopReason.TIME;
+              break annealing;
+            }
+            boolean changed = false; // true, if the following proposals are no longer valid
+            for (int k = 0; k < batchSize; k++) {
+              Proposal p = batch[k];
+              nChanges++;
+              nCycles++;
+              dir = p.dir;
+              nextDirChange = p.nextDirChange;
+              double dC = p.cost - C;
+              boolean accepted = p.cost < p.maxC;
+              changed = accepted;
+              if (accepted) {
+                C = p.cost;
+                for (int w = 0; w < workers.length; w++) {
+                  workers[w].applyMove(p.nodes, p.size, p.dir);
+                  workers[w].accept(p.dir, C, dC);
+                }
+                applyMove(p.nodes, p.size, p.dir);
+                if (accept(p.dir, C, dC)) lastImprovement = nCycles;
+              } else if (adaptive) changed = proposals.reward(p.nodes[0], p.dir, 0);
+              cooling.record(C, dC, accepted);
+              if (stop(bound, nCycles, nCycles - lastImprovement)) break annealing;
+              if (changed || cooling.stepDone()) break;
+            }
+            if (changed) batchLimit = 1;
+            else if (batchSize == batchLimit) batchLimit = Math.min(speculation, 2 * batchLimit);
+            continue;
+          }
+          nChanges++;
+          nCycles++;
+          // check for dir change
+          if ((float)nChanges / cg.size() >= nextDirChange) {
+            if (random.nextDouble() > 0.5) dir = true;
+            else dir = false;
+            nextDirChange += dirChangeInterval * random.nextDouble();
+          }
+          // apply one rotation
+          if (!prepareMove(dir)) {
+            dir = !dir;
+            if (!prepareMove(dir)) { // no rotations were possible!
+              stopReason = StopReason.NO_MOVES;
+              break annealing;
+            }
+          }
+          rotateMove(dir);
+          // calc new cost. The random number is drawn first, it determines the highest cost, which is accepted:
+          // random < exp(-dC/T) is equivalent to newC < C - T*ln(random)
+          double maxC = C - T * Math.log(random.nextDouble());
+          int newC = moveCost(dir, maxC >= Integer.MAX_VALUE - 1 ? Integer.MAX_VALUE - 1 : (int)maxC);
+          double dC = newC - C;
+          boolean accepted = newC < maxC;
+          if (accepted) {
+            C = newC; // accept change
+            if (accept(dir, C, dC)) lastImprovement = nCycles;
+          } else reject(dir); // revert change
+          cooling.record(C, dC, accepted);
+          if (stop(bound, nCycles, nCycles - lastImprovement)) break annealing;
         }
-        rotateNode(n, dir);
-        // calc new cost
-        int newC = cost();
-        double dC = newC - C;
-        if (Math.random() < Math.exp(-dC/T)) {
-          C = newC; // accept change
-          nAccepted++;
-        } else {
-          rotateNode(n, !dir); // revert change
+        T = cooling.next(T);
+        nStagnantSteps = bestC < stepBestC ? 0 : nStagnantSteps + 1;
+        if (stagnationSteps > 0 && nStagnantSteps >= stagnationSteps) {
+          stopReason = StopReason.STAGNATION;
+          break;
         }
       }
-      // reduce T according to acceptance ratio
-      double a = nAccepted / nChanges;
-      if (a > 0.96) T *= 0.5;
-      else if (a > 0.8) T *= 0.9;
-      else if (a > 0.15) T *= 0.95;
-      else T *= 0.8;
+    } finally {
+      if (workers != null) stopSpeculation();
     }
-    return new int[]{startC, C, nCycles};
+    return finish(startC, C, nCycles);
   }
 
 }
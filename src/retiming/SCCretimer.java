@@ -0,0 +1,170 @@
+package retiming;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import scheduler.CompactGraph;
+import scheduler.Graph;
+
+/**
+ * Retimes the strongly connected components of the graph independently. Registers can only be moved around a cycle inside its
+ * component, the edges between the components form an acyclic graph and can be pipelined freely. So each component with a cycle
+ * is annealed as a subgraph of its own, all of them concurrently. Afterwards, the lags of the components are shifted by an offset,
+ * which is chosen exactly: the components are visited in topological order, each one gets the smallest offset, so that the longest
+ * path does not exceed the longest path inside any component. Finally, the whole graph is annealed at a low temperature.
+ * The components regard the longest path as cost, the final annealing uses the scheduler, if it is set.
+ */
+public class SCCretimer extends SAretimer {
+  public int minComponentSize = 2; // smaller components are not annealed, only pipelined
+  public double refineAcceptance = 0.05; // share of the sampled cost increases, which is accepted at the start of the final annealing
+  public int components = 0; // number of annealed components in the last call of retime()
+
+  public SCCretimer (Graph graph) {
+    super(graph);
+  }
+
+  /**
+   * Shifts the lag of each component by an offset, so that the longest path is not longer than the longest path inside any component.
+   * The components are visited in topological order. The smallest offset, which keeps the incoming edges legal, turns some of them
+   * into zero-weight edges, one more makes all of them weighted. The larger one is only used, if the smaller one lengthens the path.
+   * @param comp
+   * the component of each node, edges between different components lead to lower numbers
+   */
+  private void pipeline (int[] comp, int nComp) {
+    int n = cg.size();
+    // the internal edges don't change, so the topological order of the whole graph stays valid inside each component
+    int[] order = new int[n];
+    cg.topologicalOrder(lag, order);
+    int[] memberOff = new int[nComp+1];
+    for (int v = 0; v < n; v++) memberOff[comp[v]+1]++;
+    for (int c = 0; c < nComp; c++) memberOff[c+1] += memberOff[c];
+    int[] member = new int[n];
+    int[] fill = new int[nComp];
+    for (int i = 0; i < n; i++) member[memberOff[comp[order[i]]] + fill[comp[order[i]]]++] = order[i];
+    // the period, which can be reached: the longest path inside a component
+    int[] arrival = new int[n];
+    int period = 0;
+    for (int i = 0; i < n; i++) {
+      int v = order[i];
+      for (int j = cg.predOff[v]; j < cg.predOff[v+1]; j++) {
+        int e = cg.predEdge[j];
+        int u = cg.src[e];
+        if (comp[u] == comp[v] && cg.weight(e, lag) == 0) arrival[v] = Math.max(arrival[v], arrival[u] + cg.delay[u]);
+      }
+      period = Math.max(period, arrival[v] + cg.delay[v]);
+    }
+    for (int c = nComp-1; c >= 0; c--) {
+      boolean external = false;
+      int offset = Integer.MIN_VALUE;
+      for (int i = memberOff[c]; i < memberOff[c+1]; i++) {
+        int v = member[i];
+        for (int j = cg.predOff[v]; j < cg.predOff[v+1]; j++) {
+          int e = cg.predEdge[j];
+          if (comp[cg.src[e]] == c) continue;
+          external = true;
+          offset = Math.max(offset, -cg.weight(e, lag));
+        }
+      }
+      if (!external) continue; // a source of the acyclic graph keeps its lags
+      if (!fits(c, offset, member, memberOff, comp, arrival, period)) offset++;
+      for (int i = memberOff[c]; i < memberOff[c+1]; i++) lag[member[i]] += offset;
+      fits(c, 0, member, memberOff, comp, arrival, period);
+    }
+  }
+
+  /**
+   * Computes the arrival times of the nodes of component c, if its lags were shifted by offset.
+   * The components before c must have their final lags and arrival times.
+   * @return
+   * true, if no node of c ends after period
+   */
+  private boolean fits (int c, int offset, int[] member, int[] memberOff, int[] comp, int[] arrival, int period) {
+    boolean fits = true;
+    for (int i = memberOff[c]; i < memberOff[c+1]; i++) {
+      int v = member[i];
+      arrival[v] = 0;
+      for (int j = cg.predOff[v]; j < cg.predOff[v+1]; j++) {
+        int e = cg.predEdge[j];
+        int u = cg.src[e];
+        int w = cg.weight(e, lag);
+        if (comp[u] != c) w += offset;
+        if (w == 0) arrival[v] = Math.max(arrival[v], arrival[u] + cg.delay[u]);
+      }
+      if (arrival[v] + cg.delay[v] > period) fits = false;
+    }
+    return fits;
+  }
+
+  /**
+   * Anneals the components concurrently, pipelines the edges between them and anneals the whole graph at a low temperature.
+   * If the whole graph is one component, it is annealed as usual.
+   * @return
+   * the start cost, the best cost, the number of cycles of all annealings and the final cost of the final annealing
+   */
+  @Override
+  public int[] retime (int quality) {
+    int n = cg.size();
+    int[] comp = new int[n];
+    int nComp = cg.components(comp);
+    components = 0;
+    if (nComp < 2) return super.retime(quality);
+    startClock(); // the time limit applies to the components and the final annealing together
+    cache = null; // created by the final annealing
+    int startC = globalCost();
+    long nCycles = 0;
+    int[] before = lag.clone();
+    // anneal the components with cycles as subgraphs
+    int[] size = new int[nComp];
+    int[] local = new int[n];
+    for (int v = 0; v < n; v++) local[v] = size[comp[v]]++;
+    int[] subOf = new int[nComp];
+    ArrayList<SAretimer> sub = new ArrayList<SAretimer>();
+    ArrayList<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+    int[][] result = new int[nComp][];
+    int[] group = new int[n];
+    for (int c = 0; c < nComp; c++) {
+      subOf[c] = -1;
+      if (size[c] < Math.max(2, minComponentSize)) continue;
+      int[] delay = new int[size[c]];
+      for (int v = 0; v < n; v++) {
+        group[v] = comp[v] == c ? local[v] : -1;
+        if (comp[v] == c) delay[local[v]] = cg.delay[v];
+      }
+      final SAretimer s = new DetachedSAretimer(new CompactGraph(cg, lag, group, size[c], delay));
+      copySettings(s);
+      s.timeLimit = timeLeft();
+      subOf[c] = sub.size();
+      sub.add(s);
+      final int q = c;
+      tasks.add(new Callable<int[]>() {
+        public int[] call () {
+          return result[q] = s.retime(quality);
+        }
+      });
+    }
+    components = sub.size();
+    boolean complete = true;
+    ExecutorService pool = threads > 1 && tasks.size() > 1 ? Executors.newFixedThreadPool(Math.min(threads, tasks.size())) : null;
+    try {
+      if (pool != null) complete = runAll(pool, tasks);
+      else for (int c = 0; c < nComp; c++) if (subOf[c] >= 0) result[c] = sub.get(subOf[c]).retime(quality);
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
+    // combine the components and pipeline the edges between them
+    if (!complete) {
+      stopReason = StopReason.TIME;
+      writeBack();
+      return new int[]{startC, startC, 0, startC};
+    }
+    for (int c = 0; c < nComp; c++) if (result[c] != null) nCycles += result[c][2];
+    for (int v = 0; v < n; v++) if (subOf[comp[v]] >= 0) lag[v] += sub.get(subOf[comp[v]]).lag[local[v]];
+    pipeline(comp, nComp);
+    if (globalCost() > startC) System.arraycopy(before, 0, lag, 0, n);
+    // refine the whole graph
+    int[] cost = refine(quality, refineAcceptance);
+    return new int[]{startC, cost[1], (int)(nCycles + cost[2]), cost[3]};
+  }
+}
@@ -0,0 +1,13 @@
+package retiming;
+
+/**
+ * Criterion, which ended a retiming.
+ */
+public enum StopReason {
+  FINISHED, // the retimer finished regularly, e.g. the annealing reached the final temperature
+  NO_MOVES, // no node could be rotated
+  TIME, // the wall-clock budget was exhausted
+  TARGET, // the target cost was reached
+  OPTIMAL, // the cost reached the lower bound, it cannot be improved any more
+  STAGNATION; // the best cost was not improved for too long
+}
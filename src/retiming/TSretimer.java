@@ -0,0 +1,95 @@
+package retiming;
+
+import scheduler.Graph;
+
+/**
+ * Tabu search: in each iteration, a list of candidate moves is evaluated and the best one is applied, even if it increases the cost.
+ * After a node was rotated, rotating it back is tabu for tenure iterations, so the search doesn't return into the local minimum
+ * it just left. A tabu move is allowed anyway, if it leads to a new best cost (aspiration criterion).
+ * The candidates are drawn by the proposals of LocalSearchRetimer, so critical, adaptive and cluster moves can be used.
+ */
+public class TSretimer extends LocalSearchRetimer {
+  public int candidates = 8; // number of moves, which are evaluated in each iteration
+  public int tenure = 10; // number of iterations, in which the reverse of a move is tabu
+  public float dirChangeInterval = 1f; // mean number of iterations per node, before the direction of rotation changes
+  private final long[][] tabu = new long[2][]; // iteration, until which a rotation into past (index 0) or future (index 1) of each node is tabu
+  private int[] chosen = new int[1]; // nodes of the best candidate
+  
+  public TSretimer (Graph graph) {
+    super(graph);
+    tabu[0] = new long[cg.size()];
+    tabu[1] = new long[cg.size()];
+  }
+  
+  private boolean isTabu (boolean rotDir, long iteration) {
+    long[] t = tabu[rotDir ? 1 : 0];
+    for (int j = 0; j < moveSize; j++) if (t[move[j]] > iteration) return true;
+    return false;
+  }
+  
+  /**
+   * Searches a retiming with low cost by tabu search.
+   * @param quality
+   * the search stops after quality iterations per node without improvement of the best cost
+   */
+  @Override
+  public int[] retime (int quality) {
+    int C = start();
+    int startC = C;
+    int nCycles = 0;
+    int bound = stopAtBound ? lowerBound() : 0;
+    for (int s = 0; s < 2; s++) for (int v = 0; v < cg.size(); v++) tabu[s][v] = 0;
+    long lastImprovement = 0;
+    long nextDirChange = 0;
+    boolean runDir = false;
+    if (C <= bound) stopReason = StopReason.OPTIMAL;
+    else if (targetCost > 0 && C <= targetCost) stopReason = StopReason.TARGET;
+    else if (quality > 0) for (long it = 1; ; it++) {
+      if (it >= nextDirChange) { // registers are pushed over several moves in the same direction
+        runDir = random.nextDouble() < 0.5;
+        nextDirChange = it + (long)(dirChangeInterval * cg.size() * random.nextDouble());
+      }
+      // evaluate candidates, the early stop of the evaluation only lets candidates pass, which are better than the best one so far
+      int candC = Integer.MAX_VALUE;
+      int chosenSize = 0;
+      boolean chosenDir = false;
+      for (int k = 0; k < candidates; k++) {
+        boolean dir = runDir;
+        if (!prepareMove(dir)) {
+          dir = !dir;
+          if (!prepareMove(dir)) break;
+        }
+        int limit = candC - 1;
+        if (isTabu(dir, it)) limit = Math.min(limit, bestC - 1); // aspiration: tabu moves must improve the best cost
+        if (limit < 0) continue;
+        nCycles++;
+        rotateMove(dir);
+        int newC = moveCost(dir, Math.min(limit, Integer.MAX_VALUE - 1));
+        revertMove(dir);
+        timing.undo();
+        if (newC > limit) continue;
+        candC = newC;
+        chosenDir = dir;
+        if (chosen.length < moveSize) chosen = new int[move.length];
+        System.arraycopy(move, 0, chosen, 0, moveSize);
+        chosenSize = moveSize;
+      }
+      if (chosenSize > 0) { // apply the best candidate
+        System.arraycopy(chosen, 0, move, 0, chosenSize);
+        moveSize = chosenSize;
+        rotateMove(chosenDir);
+        moveCost(chosenDir, Integer.MAX_VALUE - 1);
+        double dC = candC - C;
+        C = candC;
+        if (accept(chosenDir, C, dC)) lastImprovement = it;
+        for (int j = 0; j < moveSize; j++) tabu[chosenDir ? 0 : 1][move[j]] = it + tenure;
+      } else if (!prepareMove(true) && !prepareMove(false)) {
+        stopReason = StopReason.NO_MOVES;
+        break;
+      }
+      if (stop(bound, nCycles, it - lastImprovement)) break;
+      if (it - lastImprovement >= (long)quality * cg.size()) break;
+    }
+    return finish(startC, C, nCycles);
+  }
+}
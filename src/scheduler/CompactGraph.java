@@ -0,0 +1,277 @@
+package scheduler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * Compact, int-indexed snapshot of a graph, which is meant for algorithms that touch the edges very often.
+ * Nodes are numbered densely from 0 to size()-1 and edges from 0 to edges()-1. The outgoing edges of node v are
+ * the edges succOff[v] .. succOff[v+1]-1, the incoming edges of node v are the edges predEdge[predOff[v]] .. predEdge[predOff[v+1]-1].
+ * The structure is never changed after creation. Algorithms, which retime the graph, keep a retiming vector (lag) with one value per node.
+ * The weight of edge e after retiming is weight[e] + lag[dst[e]] - lag[src[e]] (see weight(e, lag)), so rotating a node into the future
+ * is lag[v]++ and rotating it into the past is lag[v]--. writeBack() transfers a retiming into the graph.
+ */
+public class CompactGraph {
+  public final Graph graph;
+  public final Node[] nodes; // node for each index
+  public final int[] delay; // delay of each node
+  public final int[] type; // ordinal of the resource type of each node
+  public final int[] succOff; // offsets of the outgoing edges of each node (size()+1 values)
+  public final int[] src; // source node of each edge
+  public final int[] dst; // destination node of each edge
+  public final int[] weight; // weight of each edge, as it was in the graph when this object was created
+  public final int[] predOff; // offsets into predEdge for each node (size()+1 values)
+  public final int[] predEdge; // incoming edges of all nodes, grouped by destination node
+  private final HashMap<Node, Integer> index;
+
+  CompactGraph (Graph g) {
+    this.graph = g;
+    int n = g.size();
+    nodes = new Node[n];
+    delay = new int[n];
+    type = new int[n];
+    index = new HashMap<Node, Integer>(n * 2);
+    Iterator<Node> it = g.iterator();
+    for (int v = 0; v < n; v++) {
+      nodes[v] = it.next();
+      delay[v] = nodes[v].getDelay();
+      type[v] = nodes[v].getRT().ordinal();
+      index.put(nodes[v], v);
+    }
+    // count edges
+    succOff = new int[n+1];
+    predOff = new int[n+1];
+    for (int v = 0; v < n; v++) succOff[v+1] = succOff[v] + nodes[v].allSuccessors().size();
+    int m = succOff[n];
+    src = new int[m];
+    dst = new int[m];
+    weight = new int[m];
+    // fill successor arrays and count incoming edges
+    for (int v = 0; v < n; v++) {
+      int e = succOff[v];
+      Iterator<Entry<Node, Integer>> eit = nodes[v].allSuccessors().entrySet().iterator();
+      while (eit.hasNext()) {
+        Entry<Node, Integer> s = eit.next();
+        src[e] = v;
+        dst[e] = index.get(s.getKey());
+        weight[e] = s.getValue();
+        predOff[dst[e]+1]++;
+        e++;
+      }
+    }
+    // fill predecessor arrays
+    for (int v = 0; v < n; v++) predOff[v+1] += predOff[v];
+    predEdge = new int[m];
+    int[] fill = new int[n];
+    for (int e = 0; e < m; e++) predEdge[predOff[dst[e]] + fill[dst[e]]++] = e;
+  }
+
+  /**
+   * Creates a coarser graph, in which each group of nodes of a finer graph is merged into one node. The first node of each group
+   * represents it in nodes and type. Edges inside a group are dropped, parallel edges between two groups are merged into the one
+   * with the smallest weight, because only this one can become 0 by retiming. Nodes without group are dropped with their edges,
+   * so groups of single nodes give a subgraph.
+   * A retiming of the coarse graph is added to the retiming of the finer graph by adding the lag of its group to each node.
+   * @param fine
+   * the finer graph
+   * @param lag
+   * the current retiming of the finer graph, which gives the edge weights of the coarse graph
+   * @param group
+   * the group of each node of the finer graph, numbered from 0 to nGroups-1, or -1 for nodes, that are dropped
+   * @param delay
+   * the delay of each group, usually the longest path inside the group
+   */
+  public CompactGraph (CompactGraph fine, int[] lag, int[] group, int nGroups, int[] delay) {
+    this.graph = fine.graph;
+    nodes = new Node[nGroups];
+    this.delay = new int[nGroups];
+    type = new int[nGroups];
+    index = new HashMap<Node, Integer>(nGroups * 2);
+    // list the members of each group
+    int[] memberOff = new int[nGroups+1];
+    for (int v = 0; v < fine.size(); v++) if (group[v] >= 0) memberOff[group[v]+1]++;
+    for (int g = 0; g < nGroups; g++) memberOff[g+1] += memberOff[g];
+    int[] member = new int[memberOff[nGroups]];
+    int[] fill = new int[nGroups];
+    for (int v = 0; v < fine.size(); v++) if (group[v] >= 0) member[memberOff[group[v]] + fill[group[v]]++] = v;
+    for (int g = 0; g < nGroups; g++) {
+      nodes[g] = fine.nodes[member[memberOff[g]]];
+      this.delay[g] = delay[g];
+      type[g] = fine.type[member[memberOff[g]]];
+      index.put(nodes[g], g);
+    }
+    // collect the edges of each group, slot holds the position of the edge to each destination group of the current group
+    int[] slot = new int[nGroups];
+    for (int g = 0; g < nGroups; g++) slot[g] = -1;
+    int[] cSrc = new int[fine.edges()];
+    int[] cDst = new int[fine.edges()];
+    int[] cWeight = new int[fine.edges()];
+    succOff = new int[nGroups+1];
+    int m = 0;
+    for (int g = 0; g < nGroups; g++) {
+      for (int i = memberOff[g]; i < memberOff[g+1]; i++) {
+        int v = member[i];
+        for (int e = fine.succOff[v]; e < fine.succOff[v+1]; e++) {
+          int h = group[fine.dst[e]];
+          if (h == g || h < 0) continue;
+          int w = fine.weight(e, lag);
+          if (slot[h] < 0) {
+            slot[h] = m;
+            cSrc[m] = g;
+            cDst[m] = h;
+            cWeight[m++] = w;
+          } else if (w < cWeight[slot[h]]) cWeight[slot[h]] = w;
+        }
+      }
+      for (int e = succOff[g]; e < m; e++) slot[cDst[e]] = -1;
+      succOff[g+1] = m;
+    }
+    src = new int[m];
+    dst = new int[m];
+    weight = new int[m];
+    System.arraycopy(cSrc, 0, src, 0, m);
+    System.arraycopy(cDst, 0, dst, 0, m);
+    System.arraycopy(cWeight, 0, weight, 0, m);
+    // fill predecessor arrays
+    predOff = new int[nGroups+1];
+    for (int e = 0; e < m; e++) predOff[dst[e]+1]++;
+    for (int g = 0; g < nGroups; g++) predOff[g+1] += predOff[g];
+    predEdge = new int[m];
+    for (int g = 0; g < nGroups; g++) fill[g] = 0;
+    for (int e = 0; e < m; e++) predEdge[predOff[dst[e]] + fill[dst[e]]++] = e;
+  }
+
+  /**
+   * @return the number of nodes
+   */
+  public int size () {
+    return nodes.length;
+  }
+
+  /**
+   * @return the number of edges
+   */
+  public int edges () {
+    return src.length;
+  }
+
+  /**
+   * @param n - a node of the graph
+   * @return the index of the node, -1 if the node is not part of this graph
+   */
+  public int indexOf (Node n) {
+    Integer i = index.get(n);
+    if (i == null) return -1;
+    return i;
+  }
+
+  /**
+   * @param e - an edge
+   * @param lag - the retiming vector
+   * @return the weight of edge e after retiming with lag
+   */
+  public int weight (int e, int[] lag) {
+    return weight[e] + lag[dst[e]] - lag[src[e]];
+  }
+
+  /**
+   * Computes a topological order of the subgraph, that consists of all edges with weight 0.
+   * @param lag
+   * the retiming vector
+   * @param order
+   * array of size() values, which receives the node indices in topological order
+   * @return
+   * the number of nodes, that could be ordered. This is less than size(), if the zero-weight edges contain a cycle.
+   */
+  public int topologicalOrder (int[] lag, int[] order) {
+    int n = nodes.length;
+    int[] nIn = new int[n];
+    for (int e = 0; e < weight.length; e++) if (weight(e, lag) == 0) nIn[dst[e]]++;
+    int end = 0;
+    for (int v = 0; v < n; v++) if (nIn[v] == 0) order[end++] = v;
+    for (int i = 0; i < end; i++) {
+      int v = order[i];
+      for (int e = succOff[v]; e < succOff[v+1]; e++) {
+        if (weight(e, lag) != 0) continue; // don't regard edges to later iterations
+        if (--nIn[dst[e]] == 0) order[end++] = dst[e];
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Computes the strongly connected components of the graph (regarding all edges) with the algorithm of Tarjan.
+   * The components are numbered in reverse topological order: edges between different components lead to lower numbers.
+   * @param component
+   * array of size() values, which receives the component of each node
+   * @return
+   * the number of components
+   */
+  public int components (int[] component) {
+    int n = nodes.length;
+    int[] index = new int[n]; // discovery index + 1 of each node, 0 for unvisited nodes
+    int[] low = new int[n];
+    int[] stack = new int[n]; // nodes of unfinished components
+    boolean[] onStack = new boolean[n];
+    int[] callNode = new int[n]; // recursion stack: node and next outgoing edge
+    int[] callEdge = new int[n];
+    int nIndex = 0, stackSize = 0, nComponents = 0;
+    for (int r = 0; r < n; r++) {
+      if (index[r] != 0) continue;
+      int depth = 0;
+      callNode[0] = r;
+      callEdge[0] = succOff[r];
+      index[r] = low[r] = ++nIndex;
+      stack[stackSize++] = r;
+      onStack[r] = true;
+      while (depth >= 0) {
+        int v = callNode[depth];
+        if (callEdge[depth] < succOff[v+1]) {
+          int w = dst[callEdge[depth]++];
+          if (index[w] == 0) { // descend
+            index[w] = low[w] = ++nIndex;
+            stack[stackSize++] = w;
+            onStack[w] = true;
+            depth++;
+            callNode[depth] = w;
+            callEdge[depth] = succOff[w];
+          } else if (onStack[w] && index[w] < low[v]) low[v] = index[w];
+          continue;
+        }
+        // all edges of v are processed
+        if (low[v] == index[v]) {
+          int w;
+          do {
+            w = stack[--stackSize];
+            onStack[w] = false;
+            component[w] = nComponents;
+          } while (w != v);
+          nComponents++;
+        }
+        depth--;
+        if (depth >= 0 && low[v] < low[callNode[depth]]) low[callNode[depth]] = low[v];
+      }
+    }
+    return nComponents;
+  }
+
+  /**
+   * Writes the edge weights after retiming into the nodes of the graph.
+   * @param lag
+   * the retiming vector
+   */
+  public void writeBack (int[] lag) {
+    Node.beginBatch(); // update the depth values only once at the end
+    // increase weights first, so that no temporary cycle of zero-weight edges can occur
+    for (int e = 0; e < weight.length; e++) {
+      if (nodes[dst[e]].getPredWeight(nodes[src[e]]) >= weight(e, lag)) continue;
+      nodes[dst[e]].prepend(nodes[src[e]], weight(e, lag));
+    }
+    for (int e = 0; e < weight.length; e++) {
+      if (nodes[dst[e]].getPredWeight(nodes[src[e]]) == weight(e, lag)) continue;
+      nodes[dst[e]].prepend(nodes[src[e]], weight(e, lag));
+    }
+    Node.endBatch();
+  }
+}
@@ -52,6 +52,15 @@ public class Graph implements Iterable<Node> {
 		return pred.append(succ, w);
 	}
 		
+	/**
+	 * Creates a compact, int-indexed copy of this graph for fast traversal.
+	 * Later changes of this graph are not reflected by the returned object.
+	 * @return the compact representation of this graph
+	 */
+	public CompactGraph compact() {
+		return new CompactGraph(this);
+	}
+		
 	public Node get(Node nd) {
 		return nodes.get(nd);
 	}
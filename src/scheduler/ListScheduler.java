@@ -1,7 +1,5 @@
 package scheduler;
 
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Map.Entry;
@@ -9,118 +7,259 @@ import java.util.Map.Entry;
 
 /**
  * Creates a list schedule of a graph.
+ * The scheduler works on the compact representation of the graph, so it can also be used as a fast cost function
+ * for retimings, that are not yet written into the graph (see makespan()).
  * @author Mitja Stachowiak, Ludwig Meysel
  */
 public class ListScheduler extends Scheduler {
   public RC constraints = null;
   
-  private static class TopologicalComparator implements Comparator<Node> {
-    @Override
-    public int compare(Node o1, Node o2) { return o1.getDepth() - o2.getDepth(); }
-  }
-  private static class PriorityComparator implements Comparator<Node> {
-    @Override
-    public int compare(Node o1, Node o2) { return o1.tmp1 - o2.tmp1; }
+  // resource tables, prepared from constraints
+  private RC preparedFor = null;
+  private String[] resNames;
+  private int[][] resTypes; // ordinals of the resource types, each resource can process
+  
+  // scratch arrays, prepared for one compact graph
+  private CompactGraph scratchFor = null;
+  private int[] order; // topological order
+  private int[] prio; // priority of each node
+  private int[] depth; // number of nodes on the longest path of zero-weight edges ending before each node, breaks ties of prio
+  private int[] pending; // number of unscheduled predecessors of each node
+  private int[] readyAt; // time slot, when all predecessors of a node are processed
+  private int[] next; // linked lists of the buckets
+  private int[] bucket; // nodes, which get ready in a time slot, indexed by time modulo bucket.length
+  private int[] heap; // one heap of ready nodes per resource type, stored in segments
+  private int[] heapOff; // start of the heap segment of each resource type
+  private int[] heapSize;
+  private int[] resBusy;
+  
+  private void prepare (CompactGraph cg) {
+    if (constraints == null) throw new IllegalArgumentException("No resource constraints given!");
+    if (preparedFor != constraints) {
+      int nRes = constraints.getAllRes().size();
+      resNames = new String[nRes];
+      resTypes = new int[nRes][];
+      Iterator<Entry<String, Set<RT>>> itRes = constraints.getAllRes().entrySet().iterator();
+      for (int r = 0; r < nRes; r++) {
+        Entry<String, Set<RT>> e = itRes.next();
+        resNames[r] = e.getKey();
+        resTypes[r] = new int[e.getValue().size()];
+        int i = 0;
+        Iterator<RT> it = e.getValue().iterator();
+        while (it.hasNext()) resTypes[r][i++] = it.next().ordinal();
+      }
+      resBusy = new int[nRes];
+      preparedFor = constraints;
+    }
+    if (scratchFor != cg) {
+      int n = cg.size();
+      order = new int[n];
+      prio = new int[n];
+      depth = new int[n];
+      pending = new int[n];
+      readyAt = new int[n];
+      next = new int[n];
+      heap = new int[n];
+      heapOff = new int[RT.values().length + 1];
+      heapSize = new int[RT.values().length];
+      int maxDelay = 0;
+      for (int v = 0; v < n; v++) {
+        heapOff[cg.type[v]+1]++;
+        if (cg.delay[v] > maxDelay) maxDelay = cg.delay[v];
+      }
+      for (int k = 0; k < heapSize.length; k++) heapOff[k+1] += heapOff[k];
+      bucket = new int[maxDelay + 1];
+      scratchFor = cg;
+    }
   }
   
   /**
-   * Computes priorities for all nodes and stores them in Node.tmp1.
-   * The priority value is the length of the longest path beyond a node.
-   * @param g
-   * the graph to be priorized
-   * @return
-   * returns an array of all nodes in the graph, sorted by their priority
+   * Computes priorities for all nodes and stores them in prio.
+   * The priority value is the length of the longest path beyond a node. Ties are broken by depth (see Node.getDepth()).
+   * @param order
+   * all nodes in topological order of the edges with weight 0
    */
-  private ArrayList<Node> setPriorities (Graph g) {
-    if (!g.tmp1Used) throw new IllegalArgumentException("tmp1Used not set!");
-    // create topologicalSort
-    ArrayList<Node> topologicalSort = new ArrayList<Node>(g.size());
-    Iterator<Node> it = g.iterator();
-    while (it.hasNext()) topologicalSort.add(it.next());
-    topologicalSort.sort(new TopologicalComparator());
-    // set all priorities to zero
-    for (int i = 0; i < topologicalSort.size(); i++) topologicalSort.get(i).tmp1 = 0;
-    // inc priorities to their sub tree height
-    for (int i = topologicalSort.size()-1; i >= 0; i--) {
-      topologicalSort.get(i).tmp1 += topologicalSort.get(i).getDelay();
-      Iterator<Entry<Node, Integer>> inIt = topologicalSort.get(i).allPredecessors().entrySet().iterator();
-      while (inIt.hasNext()) {
-        Entry<Node, Integer> e = inIt.next();
-        if (e.getValue() != 0) continue; // ignore edges to other iterations
-        if (e.getKey().tmp1 < topologicalSort.get(i).tmp1) e.getKey().tmp1 = topologicalSort.get(i).tmp1;
+  private void setPriorities (CompactGraph cg, int[] lag, int[] order) {
+    for (int i = 0; i < order.length; i++) {
+      int v = order[i];
+      int d = 0;
+      for (int j = cg.predOff[v]; j < cg.predOff[v+1]; j++) {
+        int e = cg.predEdge[j];
+        if (cg.weight(e, lag) != 0) continue; // ignore edges to other iterations
+        if (depth[cg.src[e]] + 1 > d) d = depth[cg.src[e]] + 1;
       }
+      depth[v] = d;
     }
-    topologicalSort.sort(new PriorityComparator());
-    return topologicalSort;
-  }
-
-  @Override
-  public Schedule schedule(Graph g) {
-    if (constraints == null) throw new IllegalArgumentException("No resource constraints given!");
-    if (g.tmp1Used) throw new IllegalArgumentException("tmp1 is already used by an other algorithm!");
-    g.tmp1Used = true;
-    // get list of unscheduled resources, sorted by priority
-    ArrayList<Node> unscheduled = setPriorities(g);
-    // get resource list
-    String[] resNames = new String[constraints.getAllRes().size()];
-    RT[][] resOps = new RT[constraints.getAllRes().size()][];
-    int[] resBusy = new int[constraints.getAllRes().size()]; // init with 0 - list of cycles, when the resources will be availlable again
-    Iterator<Entry<String, Set<RT>>> itRes = constraints.getAllRes().entrySet().iterator();
-    int t = 0;
-    while (itRes.hasNext()) {
-      Entry<String, Set<RT>> e = itRes.next();
-      resNames[t] = e.getKey();
-      resOps[t] = new RT[e.getValue().size()];
-      int i = 0;
-      Iterator<RT> it = e.getValue().iterator();
-      while (it.hasNext()) {
-        resOps[t][i] = it.next();
-        i++;
+    for (int i = order.length-1; i >= 0; i--) {
+      int v = order[i];
+      int p = 0;
+      for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+        if (cg.weight(e, lag) != 0) continue; // ignore edges to other iterations
+        if (prio[cg.dst[e]] > p) p = prio[cg.dst[e]];
       }
-      t++;
+      prio[v] = p + cg.delay[v];
     }
-    // prepare schedule
-    Schedule schedule = new Schedule();
-    t = 0; // current time slot
-    while (unscheduled.size() > 0) {
+  }
+  
+  /**
+   * Nodes with equal priority are taken in the order of the former list based scheduler: the deeper node first,
+   * then the node, which comes later in the node order of the graph.
+   * @return true, if node v must be scheduled before node w
+   */
+  private boolean before (int v, int w) {
+    if (prio[v] != prio[w]) return prio[v] > prio[w];
+    if (depth[v] != depth[w]) return depth[v] > depth[w];
+    return v > w;
+  }
+  
+  private void push (int k, int v) {
+    int off = heapOff[k];
+    int i = heapSize[k]++;
+    while (i > 0) {
+      int p = (i-1) / 2;
+      if (!before(v, heap[off+p])) break;
+      heap[off+i] = heap[off+p];
+      i = p;
+    }
+    heap[off+i] = v;
+  }
+  
+  private int pop (int k) {
+    int off = heapOff[k];
+    int top = heap[off];
+    int size = --heapSize[k];
+    int v = heap[off+size];
+    int i = 0;
+    while (2*i+1 < size) {
+      int c = 2*i+1;
+      if (c+1 < size && before(heap[off+c+1], heap[off+c])) c++;
+      if (!before(heap[off+c], v)) break;
+      heap[off+i] = heap[off+c];
+      i = c;
+    }
+    heap[off+i] = v;
+    return top;
+  }
+  
+  /**
+   * Creates a list schedule.
+   * @param start
+   * receives the start time of each node, may be null
+   * @param res
+   * receives the index of the resource of each node, may be null
+   * @param bound
+   * the scheduling is stopped, as soon as the schedule is known to end later than bound
+   * @return
+   * the latest end time of all nodes, -1 if the graph cannot be scheduled (maybe there is one resource type missing).
+   * If the schedule was stopped, a lower bound of the latest end time is returned, which exceeds bound.
+   */
+  private int list (CompactGraph cg, int[] lag, int[] order, int[] start, int[] res, int bound) {
+    prepare(cg);
+    if (order == null) {
+      if (cg.topologicalOrder(lag, this.order) < cg.size()) throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
+      order = this.order;
+    }
+    setPriorities(cg, lag, order);
+    int n = cg.size();
+    // init ready lists
+    for (int k = 0; k < heapSize.length; k++) heapSize[k] = 0;
+    for (int b = 0; b < bucket.length; b++) bucket[b] = -1;
+    for (int r = 0; r < resBusy.length; r++) resBusy[r] = 0;
+    for (int v = 0; v < n; v++) {
+      pending[v] = 0;
+      readyAt[v] = 0;
+    }
+    for (int e = 0; e < cg.edges(); e++) if (cg.weight(e, lag) == 0) pending[cg.dst[e]]++;
+    for (int v = 0; v < n; v++) if (pending[v] == 0) push(cg.type[v], v);
+    // schedule
+    int nLeft = n;
+    int makespan = 0;
+    int t = 0; // current time slot
+    while (nLeft > 0) {
+      // nodes, whose predecessors finish in this time slot, get ready
+      int b = t % bucket.length;
+      for (int v = bucket[b]; v >= 0; v = next[v]) push(cg.type[v], v);
+      bucket[b] = -1;
       int nResFree = 0;
       int nOpPlaned = 0;
-      for (int r = 0; r < resNames.length; r++) {
+      for (int r = 0; r < resBusy.length; r++) {
         if (resBusy[r] > t) continue; // resource is still busy in current time slot
         nResFree++;
-        nodeSearch: for (int i = unscheduled.size()-1; i >= 0; i--) {
-          Node n = unscheduled.get(i);
-          // check weather all predecessors of n are processed
-          Iterator<Entry<Node, Integer>> it = n.allPredecessors().entrySet().iterator();
-          while (it.hasNext()) {
-            Entry<Node, Integer> e = it.next();
-            if (e.getValue() != 0) continue; // don't regard predecessors in different iterations
-            if (e.getKey().tmp1 >= 0) continue nodeSearch; // this predecessor was not planned, n cannot be processed
-            if (-1 - e.getKey().tmp1 > t) continue nodeSearch; // this predecessor is still executing, n cannot be processed
-          }
-          // check weather n can be processed by res[r]
-          boolean found = false;
-          for (int j = 0; j < resOps[r].length; j++) if (resOps[r][j].equals(n.getRT())) {
-            found = true;
-            break;
-          }
-          if (!found) continue nodeSearch; // unscheduled[i] cannot be processed by res[r]
-          // plan node n
-          schedule.add(n, new Interval(t, t+n.getDelay()), resNames[r]);
-          resBusy[r] = t+n.getDelay();
-          unscheduled.remove(i);
-          n.tmp1 = -1 - t-n.getDelay(); // -1 - interval when n will be processed
-          nOpPlaned++;
-          break;
+        // search the ready node with the highest priority, that can be processed by r
+        int k = -1;
+        for (int j = 0; j < resTypes[r].length; j++) {
+          int kj = resTypes[r][j];
+          if (heapSize[kj] == 0) continue;
+          if (k < 0 || before(heap[heapOff[kj]], heap[heapOff[k]])) k = kj;
+        }
+        if (k < 0) continue; // no node can be processed by r
+        // plan node v
+        int v = pop(k);
+        if (t + prio[v] > bound) return t + prio[v]; // the path beyond v cannot end before t + prio[v]
+        int end = t + cg.delay[v];
+        if (start != null) start[v] = t;
+        if (res != null) res[v] = r;
+        resBusy[r] = end;
+        if (end > makespan) makespan = end;
+        nLeft--;
+        nOpPlaned++;
+        for (int e = cg.succOff[v]; e < cg.succOff[v+1]; e++) {
+          if (cg.weight(e, lag) != 0) continue; // don't regard successors in different iterations
+          int s = cg.dst[e];
+          if (readyAt[s] < end) readyAt[s] = end;
+          if (--pending[s] > 0) continue;
+          next[s] = bucket[readyAt[s] % bucket.length];
+          bucket[readyAt[s] % bucket.length] = s;
         }
       }
-      if (nResFree == resNames.length && nOpPlaned == 0) {
-        g.tmp1Used = false;
-        return null; // cannot plan any operation. Maybe there is one resource type missing...
-      }
+      if (nResFree == resBusy.length && nOpPlaned == 0) return -1; // cannot plan any operation. Maybe there is one resource type missing...
       t++;
     }
-    g.tmp1Used = false;
+    return makespan;
+  }
+  
+  /**
+   * Computes the length of the list schedule of a retimed graph without creating a schedule.
+   * @param cg
+   * the graph to be scheduled
+   * @param lag
+   * the retiming vector, which is applied to the edge weights of cg
+   * @return
+   * the latest end time of all nodes, -1 if the graph cannot be scheduled
+   */
+  public int makespan (CompactGraph cg, int[] lag) {
+    return list(cg, lag, null, null, null, Integer.MAX_VALUE);
+  }
+  
+  /**
+   * Computes the length of the list schedule like makespan(cg, lag), but uses a topological order,
+   * that is maintained by the caller.
+   * @param order
+   * all nodes of cg in topological order of the edges, that have weight 0 after retiming
+   */
+  public int makespan (CompactGraph cg, int[] lag, int[] order) {
+    return list(cg, lag, order, null, null, Integer.MAX_VALUE);
+  }
+  
+  /**
+   * Computes the length of the list schedule like makespan(cg, lag, order), but stops as soon as the schedule
+   * is known to end later than bound. This is much faster for retimings, that are rejected anyway.
+   * @return
+   * the latest end time of all nodes, if it does not exceed bound, otherwise a value greater than bound.
+   * -1 if the graph cannot be scheduled
+   */
+  public int makespan (CompactGraph cg, int[] lag, int[] order, int bound) {
+    return list(cg, lag, order, null, null, bound);
+  }
+
+  @Override
+  public Schedule schedule(Graph g) {
+    CompactGraph cg = g.compact();
+    int[] start = new int[cg.size()];
+    int[] res = new int[cg.size()];
+    if (list(cg, new int[cg.size()], null, start, res, Integer.MAX_VALUE) < 0) return null;
+    Schedule schedule = new Schedule();
+    for (int v = 0; v < cg.size(); v++) schedule.add(cg.nodes[v], new Interval(start[v], start[v]+cg.delay[v]), resNames[res[v]]);
     return schedule;
   }
 
@@ -1,14 +1,18 @@
 package scheduler;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a single node.
  * The ability to auto-update the depth-value was added by Mitja Stachowiak.
+ * Nodes are not thread-safe: a graph must only be changed by one thread at a time. The pending depth updates and the batches
+ * belong to the calling thread, so different threads may change different graphs concurrently.
  */
 public class Node {
   private HashSet<Node> unhandled_succ; // set of successors, which have not been handled by this node
@@ -18,13 +22,30 @@ public class Node {
   public final String id; // ID for this node - unique name
   private RT rt; // Resource type of this node
   private int depth; // The depth of the node (i.e. 0 is root, ...) - this value is self-updating!
+  private boolean depthQueued = false; // true, while this node waits in the work queue for the recomputation of its depth
   public int tmp1; // this value is free-to-use for other algorithms. While an algorithm access' tmp1, it must set the grapgh's tmp1Used-value to true
+  private static final AtomicInteger nCreated = new AtomicInteger(); // number of created nodes, which is an upper bound for any depth
+  private static final ThreadLocal<DepthUpdate> depthUpdate = new ThreadLocal<DepthUpdate>() {
+    @Override
+    protected DepthUpdate initialValue () {
+      return new DepthUpdate();
+    }
+  };
+
+  /**
+   * The pending depth updates of one thread.
+   */
+  private static class DepthUpdate {
+    int batchLevel = 0; // number of open batches, depth values are only updated when this is 0
+    final ArrayDeque<Node> work = new ArrayDeque<Node>(); // nodes, whose depth must be recomputed
+  }
   
   /**
    * @param id - ID of the new node
    * @param rt - resource type
    */
   public Node(String id, RT rt) {
+    nCreated.incrementAndGet();
     this.id = id;
     this.rt = rt;
     this.depth = 0;
@@ -39,46 +60,71 @@ public class Node {
   }
   
   /**
-   * @param newDepth
-   * if >= 0, this newDepth is set, if -1, all predecessors were searched for the latest depth-value
+   * Marks the depth of this node for recomputation. If no batch is open, the depth values are updated immediately.
    */
-  private void updateDepth (int newDepth) {
-    // if not given, search new depth
-    if (newDepth == -1) {
-      newDepth = 0;
-      Iterator<Entry<Node, Integer>> it = predecessors.entrySet().iterator();
+  private void invalidateDepth () {
+    DepthUpdate u = depthUpdate.get();
+    if (!depthQueued) {
+      depthQueued = true;
+      u.work.add(this);
+    }
+    if (u.batchLevel == 0) propagateDepth(u.work);
+  }
+
+  /**
+   * Recomputes the depth of all queued nodes and of all successors, whose depth changes in consequence.
+   * This is done iteratively, so even very long chains of nodes don't need a deep stack.
+   */
+  private static void propagateDepth (ArrayDeque<Node> depthWork) {
+    while (!depthWork.isEmpty()) {
+      Node n = depthWork.poll();
+      n.depthQueued = false;
+      // search new depth
+      int newDepth = 0;
+      Iterator<Entry<Node, Integer>> it = n.predecessors.entrySet().iterator();
       while (it.hasNext()) {
         Entry<Node, Integer> e = it.next();
         if (e.getValue() != 0) continue; // don't regard predecessors in different iterations
         int d = e.getKey().depth + 1;
         if (d > newDepth) newDepth = d;
       }
-    }
-    if (this.depth == newDepth) return; // nothing to update
-    // update depth
-    if (this.depth > newDepth) { // depth is reduced, search in all successors for new depth
-      int succDepth = this.depth + 1;
-      this.depth = newDepth;
-      Iterator<Entry<Node, Integer>> it = successors.entrySet().iterator();
-      while (it.hasNext()) {
-        Entry<Node, Integer> e = it.next();
-        if (e.getValue() != 0) continue; // don't regard successors in different iterations
-        if (e.getKey().depth != succDepth) continue; // this node's depth must be bound by an other node
-        e.getKey().updateDepth(-1);
+      if (n.depth == newDepth) continue; // nothing to update
+      if (newDepth >= nCreated.get()) { // a depth can only exceed the number of nodes, if the depth values keep increasing in a cycle
+        while (!depthWork.isEmpty()) depthWork.poll().depthQueued = false;
+        throw new IllegalArgumentException("The edges with weight 0 contain a cycle!");
       }
-    } else { // depth is increased, increase the depth of all successors, that have smaller values
-      int succDepth = newDepth + 1;
-      this.depth = newDepth;
-      Iterator<Entry<Node, Integer>> it = successors.entrySet().iterator();
+      n.depth = newDepth;
+      // all successors must check their depth
+      it = n.successors.entrySet().iterator();
       while (it.hasNext()) {
         Entry<Node, Integer> e = it.next();
         if (e.getValue() != 0) continue; // don't regard successors in different iterations
-        if (e.getKey().depth >= succDepth) continue; // this node's depth don't need to be updated
-        e.getKey().updateDepth(succDepth);
+        if (e.getKey().depthQueued) continue;
+        e.getKey().depthQueued = true;
+        depthWork.add(e.getKey());
       }
     }
   }
 
+  /**
+   * Opens a batch of edge changes. Until the batch is closed with endBatch(), the depth values are not updated.
+   * This way, a change of many edges (i.e. a rotation) needs only one pass to update the depths. Batches may be nested.
+   * A batch belongs to the calling thread, it must be closed by the same thread.
+   */
+  public static void beginBatch () {
+    depthUpdate.get().batchLevel++;
+  }
+
+  /**
+   * Closes a batch of edge changes. If this was the outermost batch, the depth values of all affected nodes are updated.
+   */
+  public static void endBatch () {
+    DepthUpdate u = depthUpdate.get();
+    if (u.batchLevel == 0) throw new IllegalArgumentException("No batch was opened!");
+    u.batchLevel--;
+    if (u.batchLevel == 0) propagateDepth(u.work);
+  }
+
   /**
    * Adds node n to the successors of this node. The edge weight is w.
    * 
@@ -105,10 +151,10 @@ public class Node {
     if (oldW != null && oldW.equals(w)) return this; // equal link already exists
     n.successors.put(this, w);
     if (w == 0) {
-      if (n.depth + 1 > this.depth) this.updateDepth(n.depth + 1);
+      if (n.depth + 1 > this.depth) this.invalidateDepth();
       unhandled_pred.add(n);
       n.unhandled_succ.add(this);
-    } else if (oldW != null && oldW.equals(0)) this.updateDepth(-1);
+    } else if (oldW != null && oldW.equals(0)) this.invalidateDepth();
     return this;
   }
 
@@ -123,12 +169,12 @@ public class Node {
     unhandled_pred.remove(n);
     if (successors.remove(n) != null) {
       n.predecessors.remove(this);
-      if (n.depth == this.depth + 1) n.updateDepth(-1);
+      if (n.depth == this.depth + 1) n.invalidateDepth();
       return true;
     }
     if (predecessors.remove(n) != null) {
       n.successors.remove(this);
-      if (n.depth + 1 == this.depth) this.updateDepth(-1);
+      if (n.depth + 1 == this.depth) this.invalidateDepth();
       return true;
     }
     return false;
@@ -0,0 +1,90 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Computes a lower bound of the length of any schedule of a graph under resource constraints, which only depends on the work
+ * of each resource type: all nodes of a type together occupy compatible resources for the sum of their delays.
+ * With heterogeneous resources, types share resources, so the work is distributed by a flow: the source sends the work of each type
+ * to the type, each type passes it to its compatible resources and each resource can pass T cycles to the sink.
+ * The smallest T, for which the whole work can flow, is a lower bound of the schedule length (it allows to split nodes between resources).
+ * It is at least the work of each type divided by the number of its compatible resources.
+ * Retiming doesn't change the work, so the bound holds for all retimings of the graph.
+ */
+public class ResourceBound {
+
+  /**
+   * @return the lower bound of the schedule length of g under the resource constraints rc
+   */
+  public static int lowerBound (Graph g, RC rc) {
+    return lowerBound(g.compact(), rc);
+  }
+
+  /**
+   * @return the lower bound of the schedule length of cg under the resource constraints rc.
+   * Types without compatible resources are ignored, such graphs cannot be scheduled at all.
+   */
+  public static int lowerBound (CompactGraph cg, RC rc) {
+    RT[] types = RT.values();
+    long[] work = new long[types.length];
+    for (int v = 0; v < cg.size(); v++) work[cg.type[v]] += cg.delay[v];
+    ArrayList<String> resNames = new ArrayList<String>(rc.getAllRes().keySet());
+    int nRes = resNames.size();
+    // flow network: source, types, resources, sink
+    int source = 0, sink = types.length + nRes + 1;
+    long[][] capacity = new long[sink+1][sink+1];
+    long total = 0;
+    for (int k = 0; k < types.length; k++) {
+      if (work[k] == 0 || rc.getResCount(types[k]) == 0) continue;
+      capacity[source][1+k] = work[k];
+      total += work[k];
+      Iterator<String> it = rc.getRes(types[k]).iterator();
+      while (it.hasNext()) capacity[1+k][1+types.length+resNames.indexOf(it.next())] = total + 1; // unbounded
+    }
+    if (total == 0) return 0;
+    // binary search for the smallest capacity of the resources, which lets the whole work flow
+    long lo = (total + nRes - 1) / nRes, hi = total;
+    while (lo < hi) {
+      long T = (lo + hi) / 2;
+      for (int r = 0; r < nRes; r++) capacity[1+types.length+r][sink] = T;
+      if (maxFlow(capacity, source, sink) == total) hi = T;
+      else lo = T + 1;
+    }
+    return (int)lo;
+  }
+
+  /**
+   * Computes the maximum flow with the algorithm of Edmonds and Karp. The network is small, so an adjacency matrix is used.
+   */
+  private static long maxFlow (long[][] capacity, int source, int sink) {
+    int n = capacity.length;
+    long[][] flow = new long[n][n];
+    int[] parent = new int[n];
+    int[] queue = new int[n];
+    long total = 0;
+    while (true) {
+      // search a shortest augmenting path
+      for (int v = 0; v < n; v++) parent[v] = -1;
+      parent[source] = source;
+      int head = 0, tail = 0;
+      queue[tail++] = source;
+      while (head < tail && parent[sink] < 0) {
+        int u = queue[head++];
+        for (int v = 0; v < n; v++) {
+          if (parent[v] >= 0 || capacity[u][v] - flow[u][v] <= 0) continue;
+          parent[v] = u;
+          queue[tail++] = v;
+        }
+      }
+      if (parent[sink] < 0) return total;
+      long d = Long.MAX_VALUE;
+      for (int v = sink; v != source; v = parent[v]) d = Math.min(d, capacity[parent[v]][v] - flow[parent[v]][v]);
+      for (int v = sink; v != source; v = parent[v]) {
+        flow[parent[v]][v] += d;
+        flow[v][parent[v]] -= d;
+      }
+      total += d;
+    }
+  }
+}